@@ -3,6 +3,7 @@ package com.yh.sbps.api.config;
 import com.yh.sbps.api.entity.Role;
 import com.yh.sbps.api.entity.User;
 import com.yh.sbps.api.repository.UserRepository;
+import com.yh.sbps.api.service.UserPrincipalCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
@@ -14,6 +15,7 @@ public class AdminInitializer implements CommandLineRunner {
 
   private final UserRepository userRepository;
   private final PasswordEncoder passwordEncoder;
+  private final UserPrincipalCache userPrincipalCache;
 
   @Value("${admin.email}")
   private String adminEmail;
@@ -28,9 +30,13 @@ public class AdminInitializer implements CommandLineRunner {
   private String serviceUserPassword;
 
   @Autowired
-  public AdminInitializer(UserRepository userRepository, PasswordEncoder passwordEncoder) {
+  public AdminInitializer(
+      UserRepository userRepository,
+      PasswordEncoder passwordEncoder,
+      UserPrincipalCache userPrincipalCache) {
     this.userRepository = userRepository;
     this.passwordEncoder = passwordEncoder;
+    this.userPrincipalCache = userPrincipalCache;
   }
 
   @Override
@@ -48,6 +54,7 @@ public class AdminInitializer implements CommandLineRunner {
       adminUser.setRole(Role.ADMIN);
 
       userRepository.save(adminUser);
+      userPrincipalCache.invalidate(adminUser.getUsername());
       System.out.println("Admin user created: " + adminEmail);
     }
   }
@@ -61,6 +68,7 @@ public class AdminInitializer implements CommandLineRunner {
       serviceUser.setRole(Role.SERVICE_USER);
 
       userRepository.save(serviceUser);
+      userPrincipalCache.invalidate(serviceUser.getUsername());
       System.out.println("Service user created: " + serviceUserEmail);
     }
   }
@@ -0,0 +1,169 @@
+package com.yh.sbps.api.config;
+
+import com.yh.sbps.api.integration.DeviceServiceWS;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.tagged.TaggedBulkheadMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.ChannelOption;
+import java.time.Duration;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ClientHttpConnector;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * HTTP client used for device-service calls. Connections come from a dedicated, bounded pool so a
+ * slow device service makes callers fail fast instead of opening ever more connections or queueing
+ * without limit. Pool and request metrics are published under {@code reactor.netty.*}.
+ *
+ * <p>Calls are further split into the {@link DeviceServiceWS} operation groups (toggle, reads,
+ * blackout stats), each with its own circuit breaker and concurrency bulkhead, so a hanging
+ * endpoint cannot starve the others. Breaker state and transitions are published under {@code
+ * resilience4j.*} and {@code sbps.device.circuit_breaker.transitions}.
+ */
+@Configuration
+public class DeviceServiceClientConfig {
+
+  private static final Logger logger = LoggerFactory.getLogger(DeviceServiceClientConfig.class);
+  private static final Pattern NUMERIC_SEGMENT = Pattern.compile("/\\d+(?=/|$)");
+
+  @Bean(destroyMethod = "dispose")
+  public ConnectionProvider deviceServiceConnectionProvider(
+      @Value("${device.client.max-connections:50}") int maxConnections,
+      @Value("${device.client.pending-acquire-max-count:500}") int pendingAcquireMaxCount,
+      @Value("${device.client.pending-acquire-timeout:PT2S}") Duration pendingAcquireTimeout,
+      @Value("${device.client.max-idle-time:PT30S}") Duration maxIdleTime,
+      @Value("${device.client.max-life-time:PT5M}") Duration maxLifeTime,
+      @Value("${device.client.evict-interval:PT30S}") Duration evictInterval) {
+    return ConnectionProvider.builder("device-service")
+        .maxConnections(maxConnections)
+        .pendingAcquireMaxCount(pendingAcquireMaxCount)
+        .pendingAcquireTimeout(pendingAcquireTimeout)
+        .maxIdleTime(maxIdleTime)
+        .maxLifeTime(maxLifeTime)
+        .evictInBackground(evictInterval)
+        .metrics(true)
+        .build();
+  }
+
+  @Bean
+  public ClientHttpConnector deviceServiceClientConnector(
+      ConnectionProvider deviceServiceConnectionProvider,
+      @Value("${device.client.connect-timeout:PT2S}") Duration connectTimeout,
+      @Value("${device.client.response-timeout:PT5S}") Duration responseTimeout,
+      @Value("${device.client.h2c:false}") boolean h2c) {
+    if (h2c) {
+      logger.info("Device-service client uses HTTP/2 over cleartext (prior knowledge).");
+    }
+    return new ReactorClientHttpConnector(
+        httpClient(deviceServiceConnectionProvider, connectTimeout, responseTimeout, h2c));
+  }
+
+  /** Builds the device-service {@link HttpClient} on top of the given pool. */
+  public static HttpClient httpClient(
+      ConnectionProvider connectionProvider,
+      Duration connectTimeout,
+      Duration responseTimeout,
+      boolean h2c) {
+    return HttpClient.create(connectionProvider)
+        .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeout.toMillis())
+        .responseTimeout(responseTimeout)
+        .protocol(h2c ? HttpProtocol.H2C : HttpProtocol.HTTP11)
+        // Device ids in paths would give every device its own set of meters
+        .metrics(true, uri -> NUMERIC_SEGMENT.matcher(uri.split("\\?", 2)[0]).replaceAll("/{id}"));
+  }
+
+  @Bean
+  public CircuitBreakerRegistry deviceServiceCircuitBreakers(
+      @Value("${device.client.circuit-breaker.failure-rate-threshold:50}") float failureRate,
+      @Value("${device.client.circuit-breaker.slow-call-duration:PT2S}") Duration slowCallDuration,
+      @Value("${device.client.circuit-breaker.sliding-window-size:20}") int slidingWindowSize,
+      @Value("${device.client.circuit-breaker.minimum-calls:10}") int minimumCalls,
+      @Value("${device.client.circuit-breaker.open-duration:PT10S}") Duration openDuration,
+      MeterRegistry meterRegistry) {
+    CircuitBreakerConfig config =
+        CircuitBreakerConfig.custom()
+            .failureRateThreshold(failureRate)
+            .slowCallRateThreshold(failureRate)
+            .slowCallDurationThreshold(slowCallDuration)
+            .slidingWindowSize(slidingWindowSize)
+            .minimumNumberOfCalls(minimumCalls)
+            .waitDurationInOpenState(openDuration)
+            .permittedNumberOfCallsInHalfOpenState(3)
+            // Client errors say nothing about the device service's health
+            .recordException(
+                e ->
+                    !(e instanceof WebClientResponseException response
+                        && response.getStatusCode().is4xxClientError()))
+            .ignoreExceptions(BulkheadFullException.class)
+            .build();
+    CircuitBreakerRegistry registry = CircuitBreakerRegistry.of(config);
+    registry
+        .getEventPublisher()
+        .onEntryAdded(event -> recordTransitions(event.getAddedEntry(), meterRegistry));
+    TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(registry).bindTo(meterRegistry);
+    return registry;
+  }
+
+  @Bean
+  public BulkheadRegistry deviceServiceBulkheads(
+      @Value("${device.client.bulkhead.toggle:20}") int toggleConcurrency,
+      @Value("${device.client.bulkhead.reads:40}") int readConcurrency,
+      @Value("${device.client.bulkhead.blackout:5}") int blackoutConcurrency,
+      MeterRegistry meterRegistry) {
+    BulkheadRegistry registry = BulkheadRegistry.of(bulkheadConfig(readConcurrency));
+    registry.bulkhead(DeviceServiceWS.TOGGLE_CALLS, bulkheadConfig(toggleConcurrency));
+    registry.bulkhead(DeviceServiceWS.READ_CALLS, bulkheadConfig(readConcurrency));
+    registry.bulkhead(DeviceServiceWS.BLACKOUT_CALLS, bulkheadConfig(blackoutConcurrency));
+    TaggedBulkheadMetrics.ofBulkheadRegistry(registry).bindTo(meterRegistry);
+    return registry;
+  }
+
+  // Calls over the limit are rejected at once rather than queued behind a slow device service
+  private static BulkheadConfig bulkheadConfig(int maxConcurrentCalls) {
+    return BulkheadConfig.custom()
+        .maxConcurrentCalls(maxConcurrentCalls)
+        .maxWaitDuration(Duration.ZERO)
+        .build();
+  }
+
+  private static void recordTransitions(
+      CircuitBreaker circuitBreaker, MeterRegistry meterRegistry) {
+    circuitBreaker
+        .getEventPublisher()
+        .onStateTransition(
+            event -> {
+              CircuitBreaker.State from = event.getStateTransition().getFromState();
+              CircuitBreaker.State to = event.getStateTransition().getToState();
+              logger.warn(
+                  "Device-service circuit breaker '{}' moved from {} to {}",
+                  event.getCircuitBreakerName(),
+                  from,
+                  to);
+              meterRegistry
+                  .counter(
+                      "sbps.device.circuit_breaker.transitions",
+                      "operation",
+                      event.getCircuitBreakerName(),
+                      "from",
+                      from.name(),
+                      "to",
+                      to.name())
+                  .increment();
+            });
+  }
+}
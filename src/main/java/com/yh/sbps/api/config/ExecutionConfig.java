@@ -0,0 +1,38 @@
+package com.yh.sbps.api.config;
+
+import java.util.concurrent.Executors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableAsync;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Thread model of the application. With {@code spring.threads.virtual.enabled=true} Spring Boot
+ * runs Tomcat requests, {@code @Async} tasks and {@code @Scheduled} jobs on virtual threads; the
+ * {@link #blockingScheduler} bean extends that to blocking work started from reactive pipelines.
+ */
+@Configuration
+@EnableAsync
+public class ExecutionConfig {
+
+  private static final Logger logger = LoggerFactory.getLogger(ExecutionConfig.class);
+
+  /**
+   * Scheduler for blocking calls (JPA lookups, token signing, SSE writes) made from reactive
+   * pipelines. JDBC concurrency is bounded by the Hikari pool, not by this scheduler.
+   */
+  @Bean(destroyMethod = "dispose")
+  public Scheduler blockingScheduler(
+      @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreadsEnabled) {
+    if (!virtualThreadsEnabled) {
+      return Schedulers.boundedElastic();
+    }
+    logger.info("Virtual-thread mode enabled for blocking work from reactive pipelines.");
+    return Schedulers.fromExecutorService(
+        Executors.newVirtualThreadPerTaskExecutor(), "virtual-blocking");
+  }
+}
@@ -0,0 +1,30 @@
+package com.yh.sbps.api.config;
+
+import com.yh.sbps.api.controller.DeviceIngestWebSocketHandler;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+/**
+ * Plain WebSocket (no STOMP, no SockJS) ingest endpoint for the device service. It lives under
+ * {@code /api/control/internal/}, so the JWT filter and the {@code SERVICE_USER} rule in {@link
+ * SecurityConfig} apply to the handshake.
+ */
+@Configuration
+@EnableWebSocket
+public class IngestWebSocketConfig implements WebSocketConfigurer {
+
+  private final DeviceIngestWebSocketHandler deviceIngestWebSocketHandler;
+
+  @Autowired
+  public IngestWebSocketConfig(DeviceIngestWebSocketHandler deviceIngestWebSocketHandler) {
+    this.deviceIngestWebSocketHandler = deviceIngestWebSocketHandler;
+  }
+
+  @Override
+  public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+    registry.addHandler(deviceIngestWebSocketHandler, "/api/control/internal/ingest");
+  }
+}
@@ -1,16 +1,20 @@
 package com.yh.sbps.api.config;
 
+import com.yh.sbps.api.entity.Role;
+import com.yh.sbps.api.entity.User;
 import com.yh.sbps.api.service.JwtService;
+import com.yh.sbps.api.service.UserPrincipalCache;
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.stereotype.Component;
 import org.springframework.web.filter.OncePerRequestFilter;
@@ -19,12 +23,17 @@ import org.springframework.web.filter.OncePerRequestFilter;
 public class JwtAuthFilter extends OncePerRequestFilter {
 
   private final JwtService jwtService;
-  private final UserDetailsService userDetailsService;
+  private final UserPrincipalCache userPrincipalCache;
+  private final boolean trustTokenRoles;
 
   @Autowired
-  public JwtAuthFilter(JwtService jwtService, UserDetailsService userDetailsService) {
+  public JwtAuthFilter(
+      JwtService jwtService,
+      UserPrincipalCache userPrincipalCache,
+      @Value("${auth.trust-token-roles:false}") boolean trustTokenRoles) {
     this.jwtService = jwtService;
-    this.userDetailsService = userDetailsService;
+    this.userPrincipalCache = userPrincipalCache;
+    this.trustTokenRoles = trustTokenRoles;
   }
 
   @Override
@@ -41,12 +50,13 @@ public class JwtAuthFilter extends OncePerRequestFilter {
     }
 
     jwt = authHeader.substring(7);
-    username = jwtService.extractUsername(jwt);
+    final Claims claims = jwtService.parseClaims(jwt);
+    username = claims.getSubject();
 
     if (username != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-      UserDetails userDetails = this.userDetailsService.loadUserByUsername(username);
+      UserDetails userDetails = resolvePrincipal(username, claims);
 
-      if (jwtService.isTokenValid(jwt, userDetails)) {
+      if (jwtService.isTokenValid(claims, userDetails)) {
         UsernamePasswordAuthenticationToken authToken =
             new UsernamePasswordAuthenticationToken(
                 userDetails, null, userDetails.getAuthorities());
@@ -56,4 +66,31 @@ public class JwtAuthFilter extends OncePerRequestFilter {
     }
     filterChain.doFilter(request, response);
   }
+
+  private UserDetails resolvePrincipal(String username, Claims claims) {
+    if (trustTokenRoles) {
+      User principal = principalFromClaims(username, claims);
+      if (principal != null) {
+        return principal;
+      }
+    }
+    return userPrincipalCache.loadUserByUsername(username);
+  }
+
+  /**
+   * Builds a detached principal from the id and role embedded by {@link JwtService}. Returns null
+   * for tokens issued before those claims existed, so they fall back to the cached lookup.
+   */
+  private User principalFromClaims(String username, Claims claims) {
+    Number userId = claims.get(JwtService.USER_ID_CLAIM, Number.class);
+    String role = claims.get(JwtService.ROLE_CLAIM, String.class);
+    if (userId == null || role == null) {
+      return null;
+    }
+    User principal = new User();
+    principal.setId(userId.longValue());
+    principal.setUsername(username);
+    principal.setRole(Role.valueOf(role));
+    return principal;
+  }
 }
@@ -3,6 +3,7 @@ package com.yh.sbps.api.config;
 import static org.springframework.security.config.Customizer.withDefaults;
 
 import com.yh.sbps.api.repository.UserRepository;
+import jakarta.servlet.DispatcherType;
 import java.util.Arrays;
 import java.util.List;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -50,7 +51,10 @@ public class SecurityConfig {
         .cors(withDefaults())
         .authorizeHttpRequests(
             auth ->
-                auth.requestMatchers("/api/auth/**", "/ws/**")
+                // async dispatches only deliver results of requests that were already authorized
+                auth.dispatcherTypeMatchers(DispatcherType.ASYNC)
+                    .permitAll()
+                    .requestMatchers("/api/auth/**", "/ws/**")
                     .permitAll()
                     .requestMatchers(
                         "/api/devices/by-mqtt-prefix/**", "/api/control/internal/**")
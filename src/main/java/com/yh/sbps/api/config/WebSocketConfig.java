@@ -1,12 +1,21 @@
 package com.yh.sbps.api.config;
 
+import java.time.Duration;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 
+/**
+ * STOMP over SockJS on {@code /ws}. Device status updates on {@code /topic/status/{username}} are
+ * delivered by {@link com.yh.sbps.api.service.StatusTopicFanout}, not by the simple broker, which
+ * only serves other {@code /topic} destinations. Channel thread pools and per-session send buffers
+ * are bounded so that slow clients cannot exhaust memory.
+ */
 @Configuration
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
@@ -14,6 +23,24 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
   @Value("${cors.allowed-origins:http://localhost:5173}")
   private String allowedOrigins;
 
+  @Value("${websocket.inbound.pool-size:4}")
+  private int inboundPoolSize;
+
+  @Value("${websocket.inbound.queue-capacity:1000}")
+  private int inboundQueueCapacity;
+
+  @Value("${websocket.outbound.pool-size:8}")
+  private int outboundPoolSize;
+
+  @Value("${websocket.outbound.queue-capacity:10000}")
+  private int outboundQueueCapacity;
+
+  @Value("${websocket.send-time-limit:PT10S}")
+  private Duration sendTimeLimit;
+
+  @Value("${websocket.send-buffer-size-limit:524288}")
+  private int sendBufferSizeLimit;
+
   @Override
   public void configureMessageBroker(MessageBrokerRegistry config) {
     config.enableSimpleBroker("/topic");
@@ -25,4 +52,30 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
     String[] origins = allowedOrigins.split(",");
     registry.addEndpoint("/ws").setAllowedOrigins(origins).withSockJS();
   }
+
+  @Override
+  public void configureClientInboundChannel(ChannelRegistration registration) {
+    registration
+        .taskExecutor()
+        .corePoolSize(inboundPoolSize)
+        .maxPoolSize(inboundPoolSize)
+        .queueCapacity(inboundQueueCapacity);
+  }
+
+  @Override
+  public void configureClientOutboundChannel(ChannelRegistration registration) {
+    registration
+        .taskExecutor()
+        .corePoolSize(outboundPoolSize)
+        .maxPoolSize(outboundPoolSize)
+        .queueCapacity(outboundQueueCapacity);
+  }
+
+  @Override
+  public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+    // A session whose socket stays blocked this long, or buffers this much, is closed
+    registration
+        .setSendTimeLimit((int) sendTimeLimit.toMillis())
+        .setSendBufferSizeLimit(sendBufferSizeLimit);
+  }
 }
@@ -1,26 +1,47 @@
 package com.yh.sbps.api.controller;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.MappingIterator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.yh.sbps.api.dto.BalancerActionDto;
 import com.yh.sbps.api.dto.BlackoutStatsDto;
 import com.yh.sbps.api.dto.DeviceStatusDto;
+import com.yh.sbps.api.dto.DeviceStatusIngestResultDto;
 import com.yh.sbps.api.dto.DeviceStatusUpdateDto;
+import com.yh.sbps.api.dto.PlugToggleBatchRequestDto;
+import com.yh.sbps.api.dto.PlugToggleDto;
+import com.yh.sbps.api.dto.PlugToggleResultDto;
 import com.yh.sbps.api.entity.Device;
 import com.yh.sbps.api.entity.Role;
 import com.yh.sbps.api.entity.User;
 import com.yh.sbps.api.integration.DeviceServiceWS;
 import com.yh.sbps.api.service.DeviceService;
+import com.yh.sbps.api.service.DeviceStatusIngestService;
+import com.yh.sbps.api.service.DeviceStatusService;
+import com.yh.sbps.api.service.DeviceStatusStreamService;
 import com.yh.sbps.api.service.PushNotificationService;
-import com.yh.sbps.api.service.WebSocketService;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 @RestController
 @RequestMapping("/api/control")
@@ -28,114 +49,204 @@ public class DeviceControlController {
 
   private final DeviceService deviceService;
   private final DeviceServiceWS deviceServiceWS;
-  private final WebSocketService webSocketService;
+  private final DeviceStatusService deviceStatusService;
+  private final DeviceStatusStreamService deviceStatusStreamService;
+  private final DeviceStatusIngestService deviceStatusIngestService;
   private final PushNotificationService pushNotificationService;
   private final ObjectMapper objectMapper;
+  private final int toggleBatchConcurrency;
+  private final int ingestMaxBatchSize;
 
   public DeviceControlController(
       DeviceService deviceService,
       DeviceServiceWS deviceServiceWS,
-      WebSocketService webSocketService,
+      DeviceStatusService deviceStatusService,
+      DeviceStatusStreamService deviceStatusStreamService,
+      DeviceStatusIngestService deviceStatusIngestService,
       PushNotificationService pushNotificationService,
-      ObjectMapper objectMapper) {
+      ObjectMapper objectMapper,
+      @Value("${device.toggle.batch-concurrency:8}") int toggleBatchConcurrency,
+      @Value("${device.ingest.max-batch-size:5000}") int ingestMaxBatchSize) {
     this.deviceService = deviceService;
     this.deviceServiceWS = deviceServiceWS;
-    this.webSocketService = webSocketService;
+    this.deviceStatusService = deviceStatusService;
+    this.deviceStatusStreamService = deviceStatusStreamService;
+    this.deviceStatusIngestService = deviceStatusIngestService;
     this.pushNotificationService = pushNotificationService;
     this.objectMapper = objectMapper;
+    this.toggleBatchConcurrency = toggleBatchConcurrency;
+    this.ingestMaxBatchSize = ingestMaxBatchSize;
   }
 
   @PostMapping("/plug/{deviceId}/toggle")
-  public ResponseEntity<?> togglePlug(
+  public Mono<ResponseEntity<?>> togglePlug(
       @AuthenticationPrincipal User user, @PathVariable Long deviceId, @RequestParam boolean on) {
     if (!canAccessDevice(user, deviceId)) {
-      return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Access denied");
+      return accessDenied();
     }
-    try {
-      return deviceServiceWS.togglePlug(deviceId, on);
-    } catch (Exception e) {
-      return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
+    return forward(() -> deviceServiceWS.togglePlugAsync(deviceId, on));
+  }
+
+  /**
+   * Toggles many plugs in one request. Ownership of all ids is checked with a single query and the
+   * toggles are sent to the device service concurrently; results keep the request order. A batch
+   * that repeats a device id is rejected, since its toggles would race on the same plug. The batch
+   * is checked here because no bean validation provider is on the classpath.
+   */
+  @PostMapping("/plugs/toggle")
+  public Mono<ResponseEntity<List<PlugToggleResultDto>>> togglePlugs(
+      @AuthenticationPrincipal User user, @RequestBody PlugToggleBatchRequestDto request) {
+    List<PlugToggleDto> toggles = request.getToggles();
+    if (!isValidToggleBatch(toggles)) {
+      return Mono.just(ResponseEntity.badRequest().build());
     }
+    Set<Long> ownedIds =
+        deviceService.getOwnedDeviceIds(
+            user, toggles.stream().map(PlugToggleDto::getDeviceId).toList());
+
+    return Flux.fromIterable(toggles)
+        .flatMapSequential(
+            toggle ->
+                ownedIds.contains(toggle.getDeviceId())
+                    ? togglePlugForBatch(toggle)
+                    : Mono.just(
+                        new PlugToggleResultDto(
+                            toggle.getDeviceId(), HttpStatus.FORBIDDEN.value(), "Access denied")),
+            toggleBatchConcurrency)
+        .collectList()
+        .map(ResponseEntity::ok);
+  }
+
+  private static boolean isValidToggleBatch(List<PlugToggleDto> toggles) {
+    return toggles != null
+        && !toggles.isEmpty()
+        && toggles.size() <= PlugToggleBatchRequestDto.MAX_TOGGLES
+        && toggles.stream().allMatch(toggle -> toggle != null && toggle.getDeviceId() != null)
+        && toggles.stream().map(PlugToggleDto::getDeviceId).distinct().count() == toggles.size();
+  }
+
+  private Mono<PlugToggleResultDto> togglePlugForBatch(PlugToggleDto toggle) {
+    Long deviceId = toggle.getDeviceId();
+    return Mono.defer(() -> deviceServiceWS.togglePlugAsync(deviceId, toggle.isOn()))
+        .map(
+            response ->
+                new PlugToggleResultDto(
+                    deviceId, response.getStatusCode().value(), response.getBody()))
+        .onErrorResume(
+            e ->
+                Mono.just(
+                    new PlugToggleResultDto(deviceId, errorStatus(e).value(), errorMessage(e))));
   }
 
   @GetMapping("/plug/{deviceId}/status")
-  public ResponseEntity<?> getStatus(
+  public Mono<ResponseEntity<?>> getStatus(
       @AuthenticationPrincipal User user, @PathVariable Long deviceId) {
     if (!canAccessDevice(user, deviceId)) {
-      return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Access denied");
-    }
-    try {
-      return deviceServiceWS.getStatus(deviceId);
-    } catch (Exception e) {
-      return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
+      return accessDenied();
     }
+    return forward(() -> deviceStatusService.getStatus(deviceId));
   }
 
   @GetMapping("/plug/{deviceId}/online")
-  public ResponseEntity<?> getOnline(
+  public Mono<ResponseEntity<?>> getOnline(
       @AuthenticationPrincipal User user, @PathVariable Long deviceId) {
     if (!canAccessDevice(user, deviceId)) {
-      return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Access denied");
-    }
-    try {
-      return deviceServiceWS.getOnline(deviceId);
-    } catch (Exception e) {
-      return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
+      return accessDenied();
     }
+    return forward(() -> deviceStatusService.getOnline(deviceId));
   }
 
   @GetMapping("/plug/{deviceId}/events")
-  public ResponseEntity<?> getEvents(
+  public Mono<ResponseEntity<?>> getEvents(
       @AuthenticationPrincipal User user, @PathVariable Long deviceId) {
     if (!canAccessDevice(user, deviceId)) {
-      return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Access denied");
-    }
-    try {
-      return deviceServiceWS.getEvents(deviceId);
-    } catch (Exception e) {
-      return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
+      return accessDenied();
     }
+    return forward(() -> deviceServiceWS.getEventsAsync(deviceId));
   }
 
   private boolean canAccessDevice(User user, Long deviceId) {
-    Optional<Device> deviceOpt = deviceService.getDeviceById(deviceId);
-    if (deviceOpt.isEmpty()) {
-      return false;
-    }
-    Device device = deviceOpt.get();
-    return device.getUser() != null && device.getUser().getId().equals(user.getId());
+    return deviceService.isDeviceOwnedBy(deviceId, user.getId());
+  }
+
+  private static Mono<ResponseEntity<?>> accessDenied() {
+    return Mono.just(ResponseEntity.status(HttpStatus.FORBIDDEN).body("Access denied"));
+  }
+
+  /**
+   * Returns the device-service call without blocking the servlet thread. Failures are reported
+   * with the error message as a 500, or with the status of a {@link ResponseStatusException}, e.g.
+   * 503 when the device-service circuit breaker rejects the call.
+   */
+  private static Mono<ResponseEntity<?>> forward(
+      Supplier<Mono<? extends ResponseEntity<?>>> deviceServiceCall) {
+    return Mono.<ResponseEntity<?>>defer(deviceServiceCall)
+        .onErrorResume(e -> Mono.just(ResponseEntity.status(errorStatus(e)).body(errorMessage(e))));
+  }
+
+  private static HttpStatusCode errorStatus(Throwable e) {
+    return e instanceof ResponseStatusException rse
+        ? rse.getStatusCode()
+        : HttpStatus.INTERNAL_SERVER_ERROR;
+  }
+
+  private static String errorMessage(Throwable e) {
+    return e instanceof ResponseStatusException rse && rse.getReason() != null
+        ? rse.getReason()
+        : e.getMessage();
   }
 
   @GetMapping("/all-statuses")
-  public ResponseEntity<?> getAllDeviceStatuses(@AuthenticationPrincipal User user) {
-    try {
-      List<Long> deviceIds = deviceService.getAllDevices(user).stream().map(Device::getId).toList();
+  public Mono<ResponseEntity<?>> getAllDeviceStatuses(@AuthenticationPrincipal User user) {
+    List<Long> deviceIds = deviceService.getAllDevices(user).stream().map(Device::getId).toList();
 
-      if (deviceIds.isEmpty()) {
-        return ResponseEntity.ok(Map.of());
-      }
+    if (deviceIds.isEmpty()) {
+      return Mono.just(ResponseEntity.ok(Map.of()));
+    }
+
+    return forward(
+        () ->
+            deviceStatusService
+                .getStatuses(deviceIds)
+                .map(deviceStatuses -> ResponseEntity.ok(toStatusResponse(deviceStatuses))));
+  }
+
+  /**
+   * Streams the user's device statuses as Server-Sent Events: a {@code snapshot} of all devices,
+   * then {@code status} updates as they arrive. Reconnecting clients send {@code Last-Event-ID}
+   * and receive only the updates they missed while those are still buffered.
+   */
+  @GetMapping(path = "/status-stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+  public SseEmitter streamStatuses(
+      @AuthenticationPrincipal User user,
+      @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+    return deviceStatusStreamService.subscribe(
+        user.getUsername(), lastEventId, () -> statusSnapshot(user));
+  }
 
-      Map<Long, DeviceStatusDto> deviceStatuses = deviceServiceWS.getAllStatuses(deviceIds);
-      Map<Long, Object> responseMap =
-          deviceStatuses.entrySet().stream()
-              .collect(
-                  Collectors.toMap(
-                      Map.Entry::getKey,
-                      entry -> {
-                        DeviceStatusDto status = entry.getValue();
-                        if (status.isOnline() && status.getStatusJson() != null) {
-                          return status.getStatusJson();
-                        } else {
-                          ObjectNode offlineNode = objectMapper.createObjectNode();
-                          offlineNode.put("online", false);
-                          return offlineNode;
-                        }
-                      }));
-
-      return ResponseEntity.ok(responseMap);
-    } catch (Exception e) {
-      return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(e.getMessage());
+  private Mono<Map<Long, Object>> statusSnapshot(User user) {
+    List<Long> deviceIds = deviceService.getAllDevices(user).stream().map(Device::getId).toList();
+    if (deviceIds.isEmpty()) {
+      return Mono.just(Map.of());
     }
+    return deviceStatusService.getStatuses(deviceIds).map(this::toStatusResponse);
+  }
+
+  private Map<Long, Object> toStatusResponse(Map<Long, DeviceStatusDto> deviceStatuses) {
+    return deviceStatuses.entrySet().stream()
+        .collect(
+            Collectors.toMap(
+                Map.Entry::getKey,
+                entry -> {
+                  DeviceStatusDto status = entry.getValue();
+                  if (status.isOnline() && status.getStatusJson() != null) {
+                    return status.getStatusJson();
+                  } else {
+                    ObjectNode offlineNode = objectMapper.createObjectNode();
+                    offlineNode.put("online", false);
+                    return offlineNode;
+                  }
+                }));
   }
 
   @PostMapping("/internal/device-update")
@@ -147,11 +258,66 @@ public class DeviceControlController {
       return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
     }
 
-    if (deviceStatusUpdate.getUsername() != null) {
-      webSocketService.broadcastDeviceUpdate(deviceStatusUpdate.getUsername(), deviceStatusUpdate);
-      return ResponseEntity.ok().build();
+    DeviceStatusIngestResultDto result =
+        deviceStatusIngestService.ingest(List.of(deviceStatusUpdate));
+    return result.getAccepted() > 0
+        ? ResponseEntity.ok().build()
+        : ResponseEntity.badRequest().build();
+  }
+
+  /**
+   * Ingests many status updates in one request, given as a JSON array. Updates without a username
+   * are counted as rejected; the others are accepted even if some of the batch is rejected. The
+   * array is read element by element, so an oversized batch is refused once it passes the limit.
+   */
+  @PostMapping(path = "/internal/device-updates", consumes = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<DeviceStatusIngestResultDto> receiveDeviceUpdates(
+      InputStream body, @AuthenticationPrincipal User serviceUser) throws IOException {
+
+    if (serviceUser == null || serviceUser.getRole() != Role.SERVICE_USER) {
+      return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+    }
+    List<DeviceStatusUpdateDto> deviceStatusUpdates = new ArrayList<>();
+    try (JsonParser parser = objectMapper.createParser(body)) {
+      if (parser.nextToken() != JsonToken.START_ARRAY) {
+        return ResponseEntity.badRequest().build();
+      }
+      while (parser.nextToken() == JsonToken.START_OBJECT) {
+        if (deviceStatusUpdates.size() == ingestMaxBatchSize) {
+          return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        }
+        deviceStatusUpdates.add(objectMapper.readValue(parser, DeviceStatusUpdateDto.class));
+      }
+      if (parser.currentToken() != JsonToken.END_ARRAY) {
+        return ResponseEntity.badRequest().build();
+      }
+    } catch (JsonProcessingException e) {
+      return ResponseEntity.badRequest().build();
+    }
+    return ResponseEntity.ok(deviceStatusIngestService.ingest(deviceStatusUpdates));
+  }
+
+  /** Same as {@link #receiveDeviceUpdates} for an NDJSON body, one update per line. */
+  @PostMapping(path = "/internal/device-updates", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+  public ResponseEntity<DeviceStatusIngestResultDto> receiveDeviceUpdatesNdjson(
+      InputStream body, @AuthenticationPrincipal User serviceUser) throws IOException {
+
+    if (serviceUser == null || serviceUser.getRole() != Role.SERVICE_USER) {
+      return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+    }
+    List<DeviceStatusUpdateDto> deviceStatusUpdates = new ArrayList<>();
+    try (MappingIterator<DeviceStatusUpdateDto> lines =
+        objectMapper.readerFor(DeviceStatusUpdateDto.class).readValues(body)) {
+      while (lines.hasNextValue()) {
+        if (deviceStatusUpdates.size() == ingestMaxBatchSize) {
+          return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        }
+        deviceStatusUpdates.add(lines.nextValue());
+      }
+    } catch (JsonProcessingException e) {
+      return ResponseEntity.badRequest().build();
     }
-    return ResponseEntity.badRequest().build();
+    return ResponseEntity.ok(deviceStatusIngestService.ingest(deviceStatusUpdates));
   }
 
   @PostMapping("/internal/balancer-action")
@@ -162,11 +328,12 @@ public class DeviceControlController {
   }
 
   @GetMapping("/system-stats")
-  public ResponseEntity<BlackoutStatsDto> getSystemStats(@AuthenticationPrincipal User user) {
+  public Mono<ResponseEntity<BlackoutStatsDto>> getSystemStats(
+      @AuthenticationPrincipal User user) {
     String monitorPrefix = deviceService.getMonitorPrefixForUser(user);
     if (monitorPrefix == null) {
-      return ResponseEntity.ok(new BlackoutStatsDto(false, 0, 0));
+      return Mono.just(ResponseEntity.ok(new BlackoutStatsDto(false, 0, 0)));
     }
-    return ResponseEntity.ok(deviceServiceWS.getBlackoutStats(monitorPrefix));
+    return deviceServiceWS.getBlackoutStatsAsync(monitorPrefix).map(ResponseEntity::ok);
   }
 }
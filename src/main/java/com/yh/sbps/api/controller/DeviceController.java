@@ -6,6 +6,7 @@ import com.yh.sbps.api.dto.SystemStateDto;
 import com.yh.sbps.api.entity.Device;
 import com.yh.sbps.api.entity.User;
 import com.yh.sbps.api.service.DeviceService;
+import com.yh.sbps.api.service.SystemStateCache;
 import jakarta.validation.Valid;
 import java.util.List;
 import java.util.Optional;
@@ -14,11 +15,14 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 @RestController
 @RequestMapping("/api/devices")
 public class DeviceController {
 
+  static final String STATE_EPOCH_HEADER = "X-State-Epoch";
+  static final String STATE_SEQUENCE_HEADER = "X-State-Sequence";
   private final DeviceService deviceService;
 
   @Autowired
@@ -65,8 +69,16 @@ public class DeviceController {
 
   @GetMapping("/by-mqtt-prefix/{mqttPrefix}")
   public ResponseEntity<SystemStateDto> getSystemStateByMqttPrefix(
-      @PathVariable String mqttPrefix) {
-    SystemStateDto state = deviceService.getSystemStateByMqttPrefix(mqttPrefix);
-    return ResponseEntity.ok(state);
+      @PathVariable String mqttPrefix, WebRequest request) {
+    SystemStateCache.Snapshot snapshot = deviceService.getSystemStateSnapshot(mqttPrefix);
+    if (request.checkNotModified(snapshot.etag())) {
+      return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(snapshot.etag()).build();
+    }
+    // Lets the device service resume the delta stream from this snapshot
+    return ResponseEntity.ok()
+        .eTag(snapshot.etag())
+        .header(STATE_EPOCH_HEADER, snapshot.epoch())
+        .header(STATE_SEQUENCE_HEADER, Long.toString(snapshot.generation()))
+        .body(snapshot.state());
   }
 }
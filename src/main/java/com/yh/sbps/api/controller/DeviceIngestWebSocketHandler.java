@@ -0,0 +1,144 @@
+package com.yh.sbps.api.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yh.sbps.api.dto.DeviceStatusIngestFrameDto;
+import com.yh.sbps.api.dto.DeviceStatusIngestResultDto;
+import com.yh.sbps.api.dto.DeviceStatusIngestSignalDto;
+import com.yh.sbps.api.dto.DeviceStatusUpdateDto;
+import com.yh.sbps.api.entity.Role;
+import com.yh.sbps.api.entity.User;
+import com.yh.sbps.api.service.DeviceStatusIngestService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.security.Principal;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+/**
+ * Long-lived ingest socket for the device service at {@code /api/control/internal/ingest}. The
+ * caller is authenticated once, at the handshake. Each text message is a {@link
+ * DeviceStatusIngestFrameDto} and is answered with an ack or nack carrying its {@code seq}; see
+ * {@link DeviceStatusIngestSignalDto} for the credit protocol. Frames are applied on the socket's
+ * reader thread, so a slow API also pushes back on the sender through TCP. When more than {@code
+ * max-concurrent-frames} frames are being applied across all sockets, new frames are refused with
+ * {@code overloaded} instead of queueing.
+ */
+@Component
+public class DeviceIngestWebSocketHandler extends TextWebSocketHandler {
+
+  private static final Logger logger = LoggerFactory.getLogger(DeviceIngestWebSocketHandler.class);
+
+  private final DeviceStatusIngestService deviceStatusIngestService;
+  private final ObjectMapper objectMapper;
+  private final int window;
+  private final int maxBatchSize;
+  private final int maxFrameSize;
+  private final Semaphore inFlight;
+  private final long retryAfterMs;
+  private final AtomicInteger sessions = new AtomicInteger();
+  private final Counter frames;
+  private final Counter shed;
+  private final Counter malformed;
+
+  @Autowired
+  public DeviceIngestWebSocketHandler(
+      DeviceStatusIngestService deviceStatusIngestService,
+      ObjectMapper objectMapper,
+      @Value("${device.ingest.window:64}") int window,
+      @Value("${device.ingest.max-batch-size:5000}") int maxBatchSize,
+      @Value("${device.ingest.max-frame-size:1048576}") int maxFrameSize,
+      @Value("${device.ingest.max-concurrent-frames:8}") int maxConcurrentFrames,
+      @Value("${device.ingest.retry-after:PT0.5S}") Duration retryAfter,
+      MeterRegistry meterRegistry) {
+    this.deviceStatusIngestService = deviceStatusIngestService;
+    this.objectMapper = objectMapper;
+    this.window = window;
+    this.maxBatchSize = maxBatchSize;
+    this.maxFrameSize = maxFrameSize;
+    this.inFlight = new Semaphore(maxConcurrentFrames);
+    this.retryAfterMs = retryAfter.toMillis();
+    this.frames = meterRegistry.counter("sbps.device.ingest.frames", "result", "applied");
+    this.shed = meterRegistry.counter("sbps.device.ingest.frames", "result", "overloaded");
+    this.malformed = meterRegistry.counter("sbps.device.ingest.frames", "result", "malformed");
+    Gauge.builder("sbps.device.ingest.sessions", sessions, AtomicInteger::get)
+        .register(meterRegistry);
+  }
+
+  @Override
+  public void afterConnectionEstablished(WebSocketSession session) throws IOException {
+    if (!isServiceUser(session.getPrincipal())) {
+      session.close(CloseStatus.POLICY_VIOLATION);
+      return;
+    }
+    // The container default (8 KiB) is sized for dashboard STOMP frames, not update batches
+    session.setTextMessageSizeLimit(maxFrameSize);
+    sessions.incrementAndGet();
+    logger.info("Device-service ingest socket {} opened", session.getId());
+    send(session, DeviceStatusIngestSignalDto.credit(window));
+  }
+
+  @Override
+  protected void handleTextMessage(WebSocketSession session, TextMessage message)
+      throws IOException {
+    DeviceStatusIngestFrameDto frame;
+    try {
+      frame = objectMapper.readValue(message.getPayload(), DeviceStatusIngestFrameDto.class);
+    } catch (JsonProcessingException e) {
+      malformed.increment();
+      send(session, DeviceStatusIngestSignalDto.nack(null, "malformed", null));
+      return;
+    }
+    List<DeviceStatusUpdateDto> updates =
+        frame.getUpdates() != null ? frame.getUpdates() : List.of();
+    if (updates.size() > maxBatchSize) {
+      send(session, DeviceStatusIngestSignalDto.nack(frame.getSeq(), "too_large", null));
+      return;
+    }
+    if (!inFlight.tryAcquire()) {
+      shed.increment();
+      send(session, DeviceStatusIngestSignalDto.nack(frame.getSeq(), "overloaded", retryAfterMs));
+      return;
+    }
+    try {
+      DeviceStatusIngestResultDto result = deviceStatusIngestService.ingest(updates);
+      frames.increment();
+      send(session, DeviceStatusIngestSignalDto.ack(frame.getSeq(), result));
+    } finally {
+      inFlight.release();
+    }
+  }
+
+  @Override
+  public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+    if (isServiceUser(session.getPrincipal())) {
+      sessions.decrementAndGet();
+      logger.info("Device-service ingest socket {} closed: {}", session.getId(), status);
+    }
+  }
+
+  private void send(WebSocketSession session, DeviceStatusIngestSignalDto signal)
+      throws IOException {
+    session.sendMessage(new TextMessage(objectMapper.writeValueAsString(signal)));
+  }
+
+  private static boolean isServiceUser(Principal principal) {
+    return principal instanceof Authentication authentication
+        && authentication.getPrincipal() instanceof User user
+        && user.getRole() == Role.SERVICE_USER;
+  }
+}
@@ -0,0 +1,27 @@
+package com.yh.sbps.api.dto;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/** One outbound subscription change for the device service; {@code device} is set for SUBSCRIBE. */
+@Setter
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class DeviceNotificationDto {
+
+  public enum Type {
+    UNSUBSCRIBE,
+    SUBSCRIBE,
+    REFRESH_STATE
+  }
+
+  private Type type;
+  private String mqttPrefix;
+  private JsonNode device;
+}
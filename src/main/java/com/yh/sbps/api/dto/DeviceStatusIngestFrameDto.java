@@ -0,0 +1,17 @@
+package com.yh.sbps.api.dto;
+
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/** One message on the streaming ingest socket; {@code seq} is echoed in the acknowledgement. */
+@Setter
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class DeviceStatusIngestFrameDto {
+  private long seq;
+  private List<DeviceStatusUpdateDto> updates;
+}
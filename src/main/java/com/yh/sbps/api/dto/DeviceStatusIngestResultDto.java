@@ -0,0 +1,15 @@
+package com.yh.sbps.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Setter
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class DeviceStatusIngestResultDto {
+  private int accepted;
+  private int rejected;
+}
@@ -0,0 +1,63 @@
+package com.yh.sbps.api.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * Flow-control message sent to the device service on the streaming ingest socket. {@code CREDIT}
+ * opens the window of frames the sender may have unacknowledged; every {@code ACK} or {@code NACK}
+ * returns one frame of credit. A {@code NACK} means the frame was not applied: it is malformed
+ * ({@code reason=malformed}), too large ({@code too_large}), or the API is shedding load ({@code
+ * overloaded}), in which case the sender should resend it after {@code retryAfterMs}.
+ */
+@Setter
+@Getter
+@NoArgsConstructor
+@ToString
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class DeviceStatusIngestSignalDto {
+
+  public enum Type {
+    CREDIT,
+    ACK,
+    NACK
+  }
+
+  private Type type;
+  private Long seq;
+  private Integer credits;
+  private Integer accepted;
+  private Integer rejected;
+  private String reason;
+  private Long retryAfterMs;
+
+  public static DeviceStatusIngestSignalDto credit(int credits) {
+    DeviceStatusIngestSignalDto signal = of(Type.CREDIT, null);
+    signal.setCredits(credits);
+    return signal;
+  }
+
+  public static DeviceStatusIngestSignalDto ack(long seq, DeviceStatusIngestResultDto result) {
+    DeviceStatusIngestSignalDto signal = of(Type.ACK, seq);
+    signal.setAccepted(result.getAccepted());
+    signal.setRejected(result.getRejected());
+    return signal;
+  }
+
+  public static DeviceStatusIngestSignalDto nack(Long seq, String reason, Long retryAfterMs) {
+    DeviceStatusIngestSignalDto signal = of(Type.NACK, seq);
+    signal.setReason(reason);
+    signal.setRetryAfterMs(retryAfterMs);
+    return signal;
+  }
+
+  private static DeviceStatusIngestSignalDto of(Type type, Long seq) {
+    DeviceStatusIngestSignalDto signal = new DeviceStatusIngestSignalDto();
+    signal.setType(type);
+    signal.setSeq(seq);
+    return signal;
+  }
+}
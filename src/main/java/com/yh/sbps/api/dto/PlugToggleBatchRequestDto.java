@@ -0,0 +1,18 @@
+package com.yh.sbps.api.dto;
+
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Setter
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class PlugToggleBatchRequestDto {
+  /** Checked by the controller, together with non-empty, non-null ids and no repeated ids. */
+  public static final int MAX_TOGGLES = 100;
+
+  private List<PlugToggleDto> toggles;
+}
@@ -0,0 +1,16 @@
+package com.yh.sbps.api.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+@Setter
+@Getter
+@NoArgsConstructor
+@AllArgsConstructor
+public class PlugToggleResultDto {
+  private Long deviceId;
+  private int status;
+  private String body;
+}
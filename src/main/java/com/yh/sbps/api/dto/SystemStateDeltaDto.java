@@ -0,0 +1,64 @@
+package com.yh.sbps.api.dto;
+
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * One change to a user's system state, addressed to the user's power monitor prefix. {@code
+ * sequence} increases by one per change within an {@code epoch}; a receiver that sees a gap or a
+ * new epoch re-reads the full state from {@code /api/devices/by-mqtt-prefix/{mqttPrefix}}.
+ */
+@Setter
+@Getter
+@NoArgsConstructor
+@ToString
+public class SystemStateDeltaDto {
+
+  public enum Type {
+    DEVICE_UPSERTED,
+    DEVICE_REMOVED,
+    SETTINGS_CHANGED
+  }
+
+  private String mqttPrefix;
+  private String epoch;
+  private long sequence;
+  private Type type;
+  private DeviceResponseDto device;
+  private Long deviceId;
+  private SystemSettingsDto settings;
+
+  public static SystemStateDeltaDto deviceUpserted(
+      String mqttPrefix, String epoch, long sequence, DeviceResponseDto device) {
+    SystemStateDeltaDto delta = of(mqttPrefix, epoch, sequence, Type.DEVICE_UPSERTED);
+    delta.setDevice(device);
+    delta.setDeviceId(device.getId());
+    return delta;
+  }
+
+  public static SystemStateDeltaDto deviceRemoved(
+      String mqttPrefix, String epoch, long sequence, Long deviceId) {
+    SystemStateDeltaDto delta = of(mqttPrefix, epoch, sequence, Type.DEVICE_REMOVED);
+    delta.setDeviceId(deviceId);
+    return delta;
+  }
+
+  public static SystemStateDeltaDto settingsChanged(
+      String mqttPrefix, String epoch, long sequence, SystemSettingsDto settings) {
+    SystemStateDeltaDto delta = of(mqttPrefix, epoch, sequence, Type.SETTINGS_CHANGED);
+    delta.setSettings(settings);
+    return delta;
+  }
+
+  private static SystemStateDeltaDto of(
+      String mqttPrefix, String epoch, long sequence, Type type) {
+    SystemStateDeltaDto delta = new SystemStateDeltaDto();
+    delta.setMqttPrefix(mqttPrefix);
+    delta.setEpoch(epoch);
+    delta.setSequence(sequence);
+    delta.setType(type);
+    return delta;
+  }
+}
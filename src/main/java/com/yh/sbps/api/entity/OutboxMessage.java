@@ -0,0 +1,48 @@
+package com.yh.sbps.api.entity;
+
+import jakarta.persistence.*;
+import java.time.Instant;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/** A device-service notification recorded in the same transaction as the change it describes. */
+@Setter
+@Getter
+@NoArgsConstructor
+@Entity
+@Table(name = "device_notification_outbox")
+public class OutboxMessage {
+
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  private Long id;
+
+  @Column(name = "mqtt_prefix", nullable = false)
+  private String mqttPrefix;
+
+  @Enumerated(EnumType.STRING)
+  @Column(name = "type", nullable = false, length = 32)
+  private OutboxMessageType type;
+
+  @Column(name = "payload", columnDefinition = "TEXT")
+  private String payload;
+
+  @Column(name = "attempts", nullable = false)
+  private int attempts = 0;
+
+  @Column(name = "next_attempt_at", nullable = false)
+  private Instant nextAttemptAt = Instant.now();
+
+  @Column(name = "last_error", length = 1024)
+  private String lastError;
+
+  @Column(name = "created_at", nullable = false, updatable = false)
+  private Instant createdAt = Instant.now();
+
+  public OutboxMessage(String mqttPrefix, OutboxMessageType type, String payload) {
+    this.mqttPrefix = mqttPrefix;
+    this.type = type;
+    this.payload = payload;
+  }
+}
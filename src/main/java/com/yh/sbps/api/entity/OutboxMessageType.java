@@ -0,0 +1,7 @@
+package com.yh.sbps.api.entity;
+
+public enum OutboxMessageType {
+  SUBSCRIBE,
+  UNSUBSCRIBE,
+  STATE_DELTA
+}
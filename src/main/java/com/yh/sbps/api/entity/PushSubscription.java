@@ -33,6 +33,17 @@ public class PushSubscription {
   @Column(name = "created_at", nullable = false, updatable = false)
   private Instant createdAt = Instant.now();
 
+  /** Consecutive transient delivery failures; reset by a successful delivery. */
+  @Column(name = "failure_count", nullable = false)
+  private int failureCount;
+
+  @Column(name = "last_failure_at")
+  private Instant lastFailureAt;
+
+  /** Set once the endpoint failed too often; disabled subscriptions get no notifications. */
+  @Column(name = "disabled_at")
+  private Instant disabledAt;
+
   public PushSubscription(User user, String endpoint, String p256dhKey, String authKey) {
     this.user = user;
     this.endpoint = endpoint;
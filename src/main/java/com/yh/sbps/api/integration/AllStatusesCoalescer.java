@@ -0,0 +1,137 @@
+package com.yh.sbps.api.integration;
+
+import com.yh.sbps.api.dto.DeviceStatusDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+/**
+ * Single-flight batching for {@code all-statuses} calls. A request is sent upstream at once when
+ * nothing is in flight, and requests whose ids are covered by a call in flight simply join it. The
+ * rest are merged into one follow-up call for the union of their device ids, sent when the calls
+ * in flight finish or {@code window} elapses, whichever comes first. Each caller receives only its
+ * own ids.
+ */
+class AllStatusesCoalescer {
+
+  private final Function<List<Long>, Mono<Map<Long, DeviceStatusDto>>> upstream;
+  private final Duration window;
+  private final Counter requests;
+  private final Counter upstreamCalls;
+  private final Counter coalesced;
+  private final List<Batch> inFlight = new ArrayList<>();
+  private Batch collecting;
+
+  AllStatusesCoalescer(
+      Function<List<Long>, Mono<Map<Long, DeviceStatusDto>>> upstream,
+      Duration window,
+      MeterRegistry meterRegistry) {
+    this.upstream = upstream;
+    this.window = window;
+    this.requests = Counter.builder("sbps.device.all_statuses.requests").register(meterRegistry);
+    this.upstreamCalls =
+        Counter.builder("sbps.device.all_statuses.upstream_calls").register(meterRegistry);
+    this.coalesced =
+        Counter.builder("sbps.device.all_statuses.coalesced")
+            .description("Requests answered by sharing another caller's upstream call")
+            .register(meterRegistry);
+  }
+
+  Mono<Map<Long, DeviceStatusDto>> fetch(List<Long> deviceIds) {
+    return Mono.defer(
+        () -> {
+          requests.increment();
+          Set<Long> wanted = new HashSet<>(deviceIds);
+          Batch batch = join(wanted);
+          return batch.result().map(all -> subset(all, wanted));
+        });
+  }
+
+  private synchronized Batch join(Set<Long> wanted) {
+    for (Batch running : inFlight) {
+      if (running.deviceIds().containsAll(wanted)) {
+        coalesced.increment();
+        return running;
+      }
+    }
+    if (collecting != null) {
+      collecting.deviceIds().addAll(wanted);
+      coalesced.increment();
+      return collecting;
+    }
+    Batch batch = new Batch(new HashSet<>(wanted), Sinks.one());
+    if (inFlight.isEmpty() || window.isZero()) {
+      inFlight.add(batch);
+      dispatch(batch);
+    } else {
+      collecting = batch;
+      Mono.delay(window).subscribe(tick -> dispatchCollecting(batch));
+    }
+    return batch;
+  }
+
+  /** Sends the collecting batch, unless it was already sent by the other trigger. */
+  private void dispatchCollecting(Batch batch) {
+    synchronized (this) {
+      if (collecting != batch) {
+        return;
+      }
+      collecting = null;
+      inFlight.add(batch);
+    }
+    dispatch(batch);
+  }
+
+  private void dispatch(Batch batch) {
+    List<Long> ids;
+    synchronized (this) {
+      ids = List.copyOf(batch.deviceIds());
+    }
+    upstreamCalls.increment();
+    upstream
+        .apply(ids)
+        .doFinally(signal -> complete(batch))
+        .subscribe(
+            value -> batch.sink().tryEmitValue(value),
+            error -> batch.sink().tryEmitError(error),
+            () -> batch.sink().tryEmitEmpty());
+  }
+
+  private void complete(Batch batch) {
+    Batch next;
+    synchronized (this) {
+      inFlight.remove(batch);
+      next = inFlight.isEmpty() ? collecting : null;
+    }
+    if (next != null) {
+      dispatchCollecting(next);
+    }
+  }
+
+  private static Map<Long, DeviceStatusDto> subset(
+      Map<Long, DeviceStatusDto> all, Set<Long> wanted) {
+    Map<Long, DeviceStatusDto> result = new HashMap<>();
+    all.forEach(
+        (id, status) -> {
+          if (wanted.contains(id)) {
+            result.put(id, status);
+          }
+        });
+    return result;
+  }
+
+  private record Batch(Set<Long> deviceIds, Sinks.One<Map<Long, DeviceStatusDto>> sink) {
+    Mono<Map<Long, DeviceStatusDto>> result() {
+      return sink.asMono();
+    }
+  }
+}
@@ -4,14 +4,23 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.yh.sbps.api.dto.BlackoutStatsDto;
+import com.yh.sbps.api.dto.DeviceNotificationDto;
 import com.yh.sbps.api.dto.DeviceStatusDto;
-import com.yh.sbps.api.entity.Device;
-import com.yh.sbps.api.entity.Role;
-import com.yh.sbps.api.entity.User;
-import com.yh.sbps.api.repository.UserRepository;
-import com.yh.sbps.api.service.JwtService;
+import com.yh.sbps.api.dto.SystemStateDeltaDto;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.reactor.bulkhead.operator.BulkheadOperator;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -20,6 +29,7 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.reactive.ClientHttpConnector;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.client.ClientRequest;
@@ -27,35 +37,63 @@ import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
 import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
 
+/**
+ * Client for the device service. Toggle, read and blackout-stats calls each go through their own
+ * circuit breaker and bulkhead; when either rejects a call it fails at once with 503 instead of
+ * waiting on the device service. Status and online reads may additionally be hedged, see {@link
+ * RequestHedger}.
+ */
 @Component
 public class DeviceServiceWS {
 
+  public static final String TOGGLE_CALLS = "toggle";
+  public static final String READ_CALLS = "reads";
+  public static final String BLACKOUT_CALLS = "blackout";
+
   private static final Logger logger = LoggerFactory.getLogger(DeviceServiceWS.class);
   private final WebClient webClient;
   private final String deviceServiceUrl;
   private final ObjectMapper objectMapper;
-  private final JwtService jwtService;
-  private final UserRepository userRepository;
+  private final ServiceTokenManager serviceTokenManager;
+  private final AllStatusesCoalescer allStatusesCoalescer;
+  private final CircuitBreakerRegistry circuitBreakers;
+  private final BulkheadRegistry bulkheads;
+  private final RequestHedger requestHedger;
 
   public DeviceServiceWS(
       WebClient.Builder webClientBuilder,
+      ClientHttpConnector deviceServiceClientConnector,
       @Value("${device.url}") String deviceServiceUrl,
-      JwtService jwtService,
-      UserRepository userRepository) {
+      ServiceTokenManager serviceTokenManager,
+      @Value("${device.all-statuses.coalesce-window:PT0.02S}") Duration coalesceWindow,
+      CircuitBreakerRegistry circuitBreakers,
+      BulkheadRegistry bulkheads,
+      RequestHedger requestHedger,
+      MeterRegistry meterRegistry) {
     this.deviceServiceUrl = deviceServiceUrl;
-    this.jwtService = jwtService;
-    this.userRepository = userRepository;
+    this.serviceTokenManager = serviceTokenManager;
+    this.circuitBreakers = circuitBreakers;
+    this.bulkheads = bulkheads;
+    this.requestHedger = requestHedger;
     this.objectMapper = new ObjectMapper();
     this.webClient =
-        webClientBuilder.baseUrl(deviceServiceUrl).filter(this.serviceUserAuthFilter()).build();
+        webClientBuilder
+            .clone()
+            .clientConnector(deviceServiceClientConnector)
+            .baseUrl(deviceServiceUrl)
+            .filter(this.serviceUserAuthFilter())
+            .build();
+    this.allStatusesCoalescer =
+        new AllStatusesCoalescer(this::fetchAllStatuses, coalesceWindow, meterRegistry);
   }
 
   private ExchangeFilterFunction serviceUserAuthFilter() {
     return (clientRequest, next) ->
-        getServiceUserToken()
+        serviceTokenManager
+            .getToken()
             .flatMap(
                 token -> {
                   ClientRequest authorizedRequest =
@@ -63,191 +101,212 @@ public class DeviceServiceWS {
                           .header(HttpHeaders.AUTHORIZATION, "Bearer " + token)
                           .build();
                   return next.exchange(authorizedRequest);
-                })
-            .switchIfEmpty(
-                Mono.error(
-                    new RuntimeException(
-                        "Service user not found, cannot authenticate internal requests")));
+                });
   }
 
-  private Mono<String> getServiceUserToken() {
-    return Mono.fromCallable(
-            () -> {
-              User serviceUser =
-                  userRepository
-                      .findByRole(Role.SERVICE_USER)
-                      .orElseThrow(
-                          () -> new RuntimeException("SERVICE_USER not found in database"));
-              return jwtService.generateToken(serviceUser);
-            })
-        .subscribeOn(Schedulers.boundedElastic());
-  }
-
-  public void notifyDeviceUpdate(Device device) {
-    String url = deviceServiceUrl + "/api/device/internal/subscribe";
-    logger.info("Notifying device-service about update for device: {}", device.getName());
-    webClient
+  /**
+   * Sends notifications in one request, falling back to the single-notification endpoints if the
+   * device service does not know the batch endpoint. Errors are propagated so the outbox retries.
+   */
+  public Mono<Void> sendNotifications(List<DeviceNotificationDto> notifications) {
+    String url = deviceServiceUrl + "/api/device/internal/notifications";
+    logger.info("Notifying device-service with {} merged notifications", notifications.size());
+    return webClient
         .post()
         .uri(url)
         .contentType(MediaType.APPLICATION_JSON)
-        .bodyValue(device)
+        .bodyValue(notifications)
         .retrieve()
         .bodyToMono(Void.class)
-        .doOnError(
-            error ->
-                logger.error(
-                    "Failed to notify device-service about device: {}", device.getName(), error))
-        .subscribe();
+        .onErrorResume(
+            WebClientResponseException.NotFound.class,
+            e -> {
+              logger.warn(
+                  "Batch notifications not supported, sending {} notifications one by one",
+                  notifications.size());
+              return Flux.fromIterable(notifications).concatMap(this::sendNotification).then();
+            });
   }
 
-  public void notifyDeviceDelete(String mqttPrefix) {
-    String url = deviceServiceUrl + "/api/device/internal/unsubscribe";
-    logger.info("Notifying device-service (UNSUBSCRIBE) for prefix: {}", mqttPrefix);
-    webClient
+  private Mono<Void> sendNotification(DeviceNotificationDto notification) {
+    String path =
+        switch (notification.getType()) {
+          case SUBSCRIBE -> "/api/device/internal/subscribe";
+          case UNSUBSCRIBE -> "/api/device/internal/unsubscribe";
+          case REFRESH_STATE -> "/api/device/internal/refresh-state";
+        };
+    Object body =
+        notification.getType() == DeviceNotificationDto.Type.SUBSCRIBE
+            ? notification.getDevice()
+            : notification.getMqttPrefix();
+    return webClient
         .post()
-        .uri(url)
+        .uri(deviceServiceUrl + path)
         .contentType(MediaType.APPLICATION_JSON)
-        .bodyValue(mqttPrefix)
+        .bodyValue(body)
         .retrieve()
         .bodyToMono(Void.class)
         .doOnError(
             error ->
                 logger.error(
-                    "Failed to notify device-service about device deletion: {}", mqttPrefix, error))
-        .subscribe();
+                    "Failed to notify device-service ({}) for prefix: {}",
+                    notification.getType(),
+                    notification.getMqttPrefix(),
+                    error));
   }
 
-  public void notifyStateRefresh(String mqttPrefix) {
-    String url = deviceServiceUrl + "/api/device/internal/refresh-state";
-    logger.info("Notifying device-service (REFRESH STATE) for prefix: {}", mqttPrefix);
-    webClient
+  /** Sends an ordered batch of system-state deltas; completes empty once they are accepted. */
+  public Mono<Void> pushStateDeltas(List<SystemStateDeltaDto> deltas) {
+    String url = deviceServiceUrl + "/api/device/internal/state-deltas";
+    logger.debug("Pushing {} state deltas to device-service", deltas.size());
+    return webClient
         .post()
         .uri(url)
         .contentType(MediaType.APPLICATION_JSON)
-        .bodyValue(mqttPrefix)
+        .bodyValue(deltas)
         .retrieve()
-        .bodyToMono(Void.class)
-        .doOnError(
-            error ->
-                logger.error(
-                    "Failed to notify device-service about state refresh: {}", mqttPrefix, error))
-        .subscribe();
+        .bodyToMono(Void.class);
   }
 
-  public ResponseEntity<String> togglePlug(Long deviceId, boolean on) {
+  public Mono<ResponseEntity<String>> togglePlugAsync(Long deviceId, boolean on) {
     String url = deviceServiceUrl + "/api/device/plug/" + deviceId + "/toggle?on=" + on;
     logger.info("Attempting to call device-service POST toggle at: {}", url);
-    try {
-      String result = webClient.post().uri(url).retrieve().bodyToMono(String.class).block();
-      return ResponseEntity.ok(result);
-    } catch (WebClientResponseException e) {
-      logger.error(
-          "Error calling device-service toggle for ID {}: Status {}, Body {}",
-          deviceId,
-          e.getStatusCode(),
-          e.getResponseBodyAsString(),
-          e);
-      return ResponseEntity.status(e.getStatusCode()).body(e.getResponseBodyAsString());
-    } catch (Exception e) {
-      logger.error("Unexpected error calling device-service toggle for ID {}", deviceId, e);
-      throw new ResponseStatusException(
-          HttpStatus.INTERNAL_SERVER_ERROR, "Unexpected error calling device service", e);
-    }
+    return toResponseEntity(
+        guarded(TOGGLE_CALLS, webClient.post().uri(url).retrieve().bodyToMono(String.class)),
+        "toggle",
+        deviceId,
+        e -> ResponseEntity.status(e.getStatusCode()).body(e.getResponseBodyAsString()));
   }
 
-  public ResponseEntity<JsonNode> getStatus(Long deviceId) {
+  public Mono<ResponseEntity<JsonNode>> getStatusAsync(Long deviceId) {
     String url = deviceServiceUrl + "/api/device/plug/" + deviceId + "/status";
     logger.info("Attempting to call device-service GET status at: {}", url);
-    try {
-      JsonNode result = webClient.get().uri(url).retrieve().bodyToMono(JsonNode.class).block();
-      return ResponseEntity.ok(result);
-    } catch (WebClientResponseException e) {
-      logger.error(
-          "Error calling device-service status for ID {}: Status {}, Body {}",
-          deviceId,
-          e.getStatusCode(),
-          e.getResponseBodyAsString(),
-          e);
-      return ResponseEntity.status(e.getStatusCode()).body(convertErrorBodyToJsonNode(e));
-    } catch (Exception e) {
-      logger.error("Unexpected error calling device-service status for ID {}", deviceId, e);
-      throw new ResponseStatusException(
-          HttpStatus.INTERNAL_SERVER_ERROR, "Unexpected error calling device service", e);
-    }
+    Supplier<Mono<JsonNode>> call =
+        () -> guarded(READ_CALLS, webClient.get().uri(url).retrieve().bodyToMono(JsonNode.class));
+    return toResponseEntity(
+        requestHedger.hedge(call),
+        "status",
+        deviceId,
+        e -> ResponseEntity.status(e.getStatusCode()).body(convertErrorBodyToJsonNode(e)));
   }
 
-  public ResponseEntity<Boolean> getOnline(Long deviceId) {
+  public Mono<ResponseEntity<Boolean>> getOnlineAsync(Long deviceId) {
     String url = deviceServiceUrl + "/api/device/plug/" + deviceId + "/online";
     logger.info("Attempting to call device-service GET online at: {}", url);
-    try {
-      Boolean result = webClient.get().uri(url).retrieve().bodyToMono(Boolean.class).block();
-      return ResponseEntity.ok(result);
-    } catch (WebClientResponseException e) {
-      logger.error(
-          "Error calling device-service online for ID {}: Status {}, Body {}",
-          deviceId,
-          e.getStatusCode(),
-          e.getResponseBodyAsString(),
-          e);
-      return ResponseEntity.status(e.getStatusCode()).build();
-    } catch (Exception e) {
-      logger.error("Unexpected error calling device-service online for ID {}", deviceId, e);
-      throw new ResponseStatusException(
-          HttpStatus.INTERNAL_SERVER_ERROR, "Unexpected error calling device service", e);
-    }
+    Supplier<Mono<Boolean>> call =
+        () -> guarded(READ_CALLS, webClient.get().uri(url).retrieve().bodyToMono(Boolean.class));
+    return toResponseEntity(
+        requestHedger.hedge(call),
+        "online",
+        deviceId,
+        e -> ResponseEntity.status(e.getStatusCode()).build());
   }
 
-  public ResponseEntity<JsonNode> getEvents(Long deviceId) {
+  public Mono<ResponseEntity<JsonNode>> getEventsAsync(Long deviceId) {
     String url = deviceServiceUrl + "/api/device/plug/" + deviceId + "/events";
     logger.info("Attempting to call device-service GET events at: {}", url);
-    try {
-      JsonNode result = webClient.get().uri(url).retrieve().bodyToMono(JsonNode.class).block();
-      return ResponseEntity.ok(result);
-    } catch (WebClientResponseException e) {
-      logger.error(
-          "Error calling device-service events for ID {}: Status {}, Body {}",
-          deviceId,
-          e.getStatusCode(),
-          e.getResponseBodyAsString(),
-          e);
-      return ResponseEntity.status(e.getStatusCode()).body(convertErrorBodyToJsonNode(e));
-    } catch (Exception e) {
-      logger.error("Unexpected error calling device-service events for ID {}", deviceId, e);
-      throw new ResponseStatusException(
-          HttpStatus.INTERNAL_SERVER_ERROR, "Unexpected error calling device service", e);
-    }
+    return toResponseEntity(
+        guarded(READ_CALLS, webClient.get().uri(url).retrieve().bodyToMono(JsonNode.class)),
+        "events",
+        deviceId,
+        e -> ResponseEntity.status(e.getStatusCode()).body(convertErrorBodyToJsonNode(e)));
   }
 
-  public Map<Long, DeviceStatusDto> getAllStatuses(List<Long> deviceIds) {
+  /**
+   * Concurrent calls are coalesced: callers whose ids are covered by a call already in flight join
+   * it, and the others share a single follow-up request once it finishes.
+   */
+  public Mono<Map<Long, DeviceStatusDto>> getAllStatusesAsync(List<Long> deviceIds) {
+    return allStatusesCoalescer.fetch(deviceIds);
+  }
+
+  private Mono<Map<Long, DeviceStatusDto>> fetchAllStatuses(List<Long> deviceIds) {
     String url = deviceServiceUrl + "/api/device/internal/all-statuses";
     logger.info("Attempting to call device-service POST internal/all-statuses");
-    try {
-      ParameterizedTypeReference<Map<Long, DeviceStatusDto>> typeRef =
-          new ParameterizedTypeReference<>() {};
+    ParameterizedTypeReference<Map<Long, DeviceStatusDto>> typeRef =
+        new ParameterizedTypeReference<>() {};
 
-      return webClient
-          .post()
-          .uri(url)
-          .contentType(MediaType.APPLICATION_JSON)
-          .body(BodyInserters.fromValue(deviceIds))
-          .retrieve()
-          .bodyToMono(typeRef)
-          .block();
-    } catch (Exception e) {
-      logger.error("Error calling device-service internal/all-statuses", e);
-      throw new ResponseStatusException(
-          HttpStatus.INTERNAL_SERVER_ERROR, "Unexpected error calling device service", e);
-    }
+    return guarded(
+            READ_CALLS,
+            webClient
+                .post()
+                .uri(url)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(BodyInserters.fromValue(deviceIds))
+                .retrieve()
+                .bodyToMono(typeRef))
+        .onErrorMap(DeviceServiceWS::isRejected, DeviceServiceWS::unavailable)
+        .onErrorMap(
+            e -> !(e instanceof ResponseStatusException),
+            e -> {
+              logger.error("Error calling device-service internal/all-statuses", e);
+              return new ResponseStatusException(
+                  HttpStatus.INTERNAL_SERVER_ERROR, "Unexpected error calling device service", e);
+            });
   }
 
-  public BlackoutStatsDto getBlackoutStats(String mqttPrefix) {
+  public Mono<BlackoutStatsDto> getBlackoutStatsAsync(String mqttPrefix) {
     String url = deviceServiceUrl + "/api/device/internal/blackout-stats?mqttPrefix=" + mqttPrefix;
-    try {
-      return webClient.get().uri(url).retrieve().bodyToMono(BlackoutStatsDto.class).block();
-    } catch (Exception e) {
-      logger.error("Error getting blackout stats for prefix {}", mqttPrefix, e);
-      return new BlackoutStatsDto(false, 0, 0);
-    }
+    return guarded(
+            BLACKOUT_CALLS, webClient.get().uri(url).retrieve().bodyToMono(BlackoutStatsDto.class))
+        .onErrorResume(
+            e -> {
+              logger.error("Error getting blackout stats for prefix {}", mqttPrefix, e);
+              return Mono.just(new BlackoutStatsDto(false, 0, 0));
+            });
+  }
+
+  /**
+   * Wraps a device-service response body into a {@link ResponseEntity}: upstream HTTP errors are
+   * passed through via {@code errorResponse}, anything else becomes a 500 {@link
+   * ResponseStatusException}.
+   */
+  private <T> Mono<ResponseEntity<T>> toResponseEntity(
+      Mono<T> body,
+      String operation,
+      Long deviceId,
+      Function<WebClientResponseException, ResponseEntity<T>> errorResponse) {
+    return body.map(ResponseEntity::ok)
+        .defaultIfEmpty(ResponseEntity.ok().build())
+        .onErrorResume(
+            WebClientResponseException.class,
+            e -> {
+              logger.error(
+                  "Error calling device-service {} for ID {}: Status {}, Body {}",
+                  operation,
+                  deviceId,
+                  e.getStatusCode(),
+                  e.getResponseBodyAsString(),
+                  e);
+              return Mono.just(errorResponse.apply(e));
+            })
+        .onErrorMap(DeviceServiceWS::isRejected, DeviceServiceWS::unavailable)
+        .onErrorMap(
+            e -> !(e instanceof ResponseStatusException),
+            e -> {
+              logger.error(
+                  "Unexpected error calling device-service {} for ID {}", operation, deviceId, e);
+              return new ResponseStatusException(
+                  HttpStatus.INTERNAL_SERVER_ERROR, "Unexpected error calling device service", e);
+            });
+  }
+
+  /** Runs the call through the circuit breaker and bulkhead of its operation group. */
+  private <T> Mono<T> guarded(String operation, Mono<T> call) {
+    Bulkhead bulkhead = bulkheads.bulkhead(operation);
+    CircuitBreaker circuitBreaker = circuitBreakers.circuitBreaker(operation);
+    return call.transformDeferred(BulkheadOperator.of(bulkhead))
+        .transformDeferred(CircuitBreakerOperator.of(circuitBreaker));
+  }
+
+  private static boolean isRejected(Throwable e) {
+    return e instanceof CallNotPermittedException || e instanceof BulkheadFullException;
+  }
+
+  private static ResponseStatusException unavailable(Throwable e) {
+    logger.debug("Device-service call rejected: {}", e.getMessage());
+    return new ResponseStatusException(
+        HttpStatus.SERVICE_UNAVAILABLE, "Device service temporarily unavailable", e);
   }
 
   private JsonNode convertErrorBodyToJsonNode(WebClientResponseException e) {
@@ -0,0 +1,91 @@
+package com.yh.sbps.api.integration;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.yh.sbps.api.dto.DeviceNotificationDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges queued subscribe/unsubscribe/refresh notifications per mqttPrefix: a subscribe replaces
+ * an earlier unsubscribe of the same prefix, an unsubscribe drops earlier subscribes and refreshes,
+ * and repeated refreshes collapse into one.
+ */
+class NotificationMerger {
+
+  private final Counter received;
+  private final Counter sent;
+
+  NotificationMerger(MeterRegistry meterRegistry) {
+    this.received = meterRegistry.counter("sbps.device.notifications.received");
+    this.sent = meterRegistry.counter("sbps.device.notifications.sent");
+    Gauge.builder("sbps.device.notifications.coalescing_ratio", this, merger -> merger.ratio())
+        .description("Share of received notifications that were merged away")
+        .register(meterRegistry);
+  }
+
+  /** Returns the net notifications, in first-seen prefix order. */
+  List<DeviceNotificationDto> merge(List<DeviceNotificationDto> notifications) {
+    Map<String, Pending> pending = new LinkedHashMap<>();
+    for (DeviceNotificationDto notification : notifications) {
+      Pending merged = pending.computeIfAbsent(notification.getMqttPrefix(), p -> new Pending());
+      switch (notification.getType()) {
+        case SUBSCRIBE -> merged.subscribe(notification.getDevice());
+        case UNSUBSCRIBE -> merged.unsubscribe();
+        case REFRESH_STATE -> merged.refresh();
+      }
+    }
+    List<DeviceNotificationDto> result = new ArrayList<>();
+    pending.forEach((mqttPrefix, merged) -> merged.appendTo(mqttPrefix, result));
+    received.increment(notifications.size());
+    sent.increment(result.size());
+    return result;
+  }
+
+  private double ratio() {
+    double total = received.count();
+    return total == 0 ? 0 : 1 - sent.count() / total;
+  }
+
+  /** Net effect of the notifications queued for one prefix. */
+  private static final class Pending {
+    private boolean unsubscribe;
+    private JsonNode subscribe;
+    private boolean refresh;
+
+    void subscribe(JsonNode device) {
+      // Re-subscribing an existing prefix is idempotent on the device service
+      unsubscribe = false;
+      subscribe = device;
+    }
+
+    void unsubscribe() {
+      unsubscribe = true;
+      subscribe = null;
+      refresh = false;
+    }
+
+    void refresh() {
+      refresh = true;
+    }
+
+    void appendTo(String mqttPrefix, List<DeviceNotificationDto> out) {
+      if (unsubscribe) {
+        out.add(
+            new DeviceNotificationDto(DeviceNotificationDto.Type.UNSUBSCRIBE, mqttPrefix, null));
+      }
+      if (subscribe != null) {
+        out.add(
+            new DeviceNotificationDto(DeviceNotificationDto.Type.SUBSCRIBE, mqttPrefix, subscribe));
+      }
+      if (refresh) {
+        out.add(
+            new DeviceNotificationDto(DeviceNotificationDto.Type.REFRESH_STATE, mqttPrefix, null));
+      }
+    }
+  }
+}
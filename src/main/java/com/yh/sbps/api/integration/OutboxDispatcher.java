@@ -0,0 +1,309 @@
+package com.yh.sbps.api.integration;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yh.sbps.api.dto.DeviceNotificationDto;
+import com.yh.sbps.api.dto.SystemStateDeltaDto;
+import com.yh.sbps.api.entity.OutboxMessage;
+import com.yh.sbps.api.entity.OutboxMessageType;
+import com.yh.sbps.api.repository.OutboxMessageRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Drains the device-service outbox. Each poll claims a bounded batch of due messages, groups them
+ * by mqttPrefix and delivers the groups in parallel; within a prefix messages go out strictly in
+ * order. Claiming skips rows locked by other instances and leases the rest, so several instances
+ * can poll the same table. A failed group is retried with exponential backoff, and later messages
+ * for the same prefix wait behind it. Delivery is at-least-once: subscriptions are idempotent and
+ * receivers drop deltas whose sequence they have already applied.
+ */
+@Component
+public class OutboxDispatcher {
+
+  private static final Logger logger = LoggerFactory.getLogger(OutboxDispatcher.class);
+  private static final Duration GROUP_TIMEOUT = Duration.ofSeconds(30);
+  // Claimed rows are not due again until this passes, so a crashed poller's claim lapses on its own
+  private static final Duration CLAIM_LEASE = GROUP_TIMEOUT.multipliedBy(2);
+  private static final Duration LAG_REFRESH_INTERVAL = Duration.ofSeconds(10);
+  private static final int MAX_ERROR_LENGTH = 1024;
+
+  private final OutboxMessageRepository outboxMessageRepository;
+  private final DeviceServiceWS deviceServiceWS;
+  private final ObjectMapper objectMapper;
+  private final TransactionTemplate transactionTemplate;
+  private final Scheduler blockingScheduler;
+  private final NotificationMerger notificationMerger;
+  private final int batchSize;
+  private final int concurrency;
+  private final Duration initialBackoff;
+  private final Duration maxBackoff;
+  private final Counter delivered;
+  private final Counter failures;
+  private final AtomicLong pending = new AtomicLong();
+  private final AtomicLong lagSeconds = new AtomicLong();
+  private final AtomicBoolean polling = new AtomicBoolean();
+  private volatile Instant lagUpdatedAt = Instant.MIN;
+
+  public OutboxDispatcher(
+      OutboxMessageRepository outboxMessageRepository,
+      DeviceServiceWS deviceServiceWS,
+      ObjectMapper objectMapper,
+      TransactionTemplate transactionTemplate,
+      Scheduler blockingScheduler,
+      @Value("${device.outbox.batch-size:200}") int batchSize,
+      @Value("${device.outbox.concurrency:8}") int concurrency,
+      @Value("${device.outbox.initial-backoff:PT1S}") Duration initialBackoff,
+      @Value("${device.outbox.max-backoff:PT5M}") Duration maxBackoff,
+      MeterRegistry meterRegistry) {
+    this.outboxMessageRepository = outboxMessageRepository;
+    this.deviceServiceWS = deviceServiceWS;
+    this.objectMapper = objectMapper;
+    this.transactionTemplate = transactionTemplate;
+    this.blockingScheduler = blockingScheduler;
+    this.notificationMerger = new NotificationMerger(meterRegistry);
+    this.batchSize = batchSize;
+    this.concurrency = concurrency;
+    this.initialBackoff = initialBackoff;
+    this.maxBackoff = maxBackoff;
+    this.delivered = meterRegistry.counter("sbps.device.outbox.delivered");
+    this.failures = meterRegistry.counter("sbps.device.outbox.failures");
+    Gauge.builder("sbps.device.outbox.pending", pending, AtomicLong::get)
+        .description("Messages waiting in the outbox")
+        .register(meterRegistry);
+    Gauge.builder("sbps.device.outbox.lag_seconds", lagSeconds, AtomicLong::get)
+        .description("Age of the oldest undelivered outbox message")
+        .register(meterRegistry);
+  }
+
+  /** Starts a poll unless the previous one is still running; never blocks the scheduler thread. */
+  @Scheduled(fixedDelayString = "${device.outbox.poll-interval:PT0.5S}")
+  public void dispatch() {
+    if (!polling.compareAndSet(false, true)) {
+      return;
+    }
+    poll()
+        .doFinally(signal -> polling.set(false))
+        .subscribe(null, e -> logger.warn("Outbox poll failed: {}", e.getMessage()));
+  }
+
+  /** Claims and records on the blocking scheduler; delivery itself is non-blocking. */
+  Mono<Void> poll() {
+    return Mono.defer(
+        () -> {
+          Instant now = Instant.now();
+          return Mono.fromCallable(() -> claim(now))
+              .subscribeOn(blockingScheduler)
+              .flatMap(
+                  byPrefix ->
+                      Flux.fromIterable(byPrefix.values())
+                          .flatMap(this::deliver, concurrency)
+                          .collectList()
+                          .publishOn(blockingScheduler)
+                          .doOnNext(
+                              results -> {
+                                results.forEach(result -> record(result, now));
+                                updateLag(now, !byPrefix.isEmpty());
+                              }))
+              .then();
+        });
+  }
+
+  /**
+   * Takes the due messages no other poller holds, drops prefixes that still have an older message
+   * waiting, and leases the rest by moving their next attempt past the delivery timeout. The row
+   * locks are held only for this short transaction, not while delivering.
+   */
+  private Map<String, List<OutboxMessage>> claim(Instant now) {
+    return transactionTemplate.execute(
+        status -> {
+          List<OutboxMessage> due =
+              outboxMessageRepository.findByNextAttemptAtLessThanEqualOrderByIdAsc(
+                  now, PageRequest.of(0, batchSize));
+          if (due.isEmpty()) {
+            return Map.of();
+          }
+          Set<String> blocked =
+              new HashSet<>(
+                  outboxMessageRepository.findBlockedPrefixes(
+                      due.stream().map(OutboxMessage::getMqttPrefix).distinct().toList(),
+                      due.getLast().getId(),
+                      due.stream().map(OutboxMessage::getId).toList()));
+          Map<String, List<OutboxMessage>> byPrefix = new LinkedHashMap<>();
+          List<OutboxMessage> claimed = new ArrayList<>();
+          for (OutboxMessage message : due) {
+            if (!blocked.contains(message.getMqttPrefix())) {
+              message.setNextAttemptAt(now.plus(CLAIM_LEASE));
+              byPrefix
+                  .computeIfAbsent(message.getMqttPrefix(), p -> new ArrayList<>())
+                  .add(message);
+              claimed.add(message);
+            }
+          }
+          if (!claimed.isEmpty()) {
+            outboxMessageRepository.saveAll(claimed);
+          }
+          return byPrefix;
+        });
+  }
+
+  private Mono<GroupResult> deliver(List<OutboxMessage> messages) {
+    List<OutboxMessage> sent = new ArrayList<>();
+    return Flux.fromIterable(segments(messages))
+        .concatMap(segment -> send(segment).then(Mono.fromRunnable(() -> sent.addAll(segment))))
+        .then(Mono.fromCallable(() -> new GroupResult(messages, sent, null)))
+        .timeout(GROUP_TIMEOUT)
+        .onErrorResume(e -> Mono.just(new GroupResult(messages, sent, e)));
+  }
+
+  /** Splits a prefix's messages into runs of deltas and runs of subscription notifications. */
+  private static List<List<OutboxMessage>> segments(List<OutboxMessage> messages) {
+    List<List<OutboxMessage>> segments = new ArrayList<>();
+    List<OutboxMessage> current = null;
+    for (OutboxMessage message : messages) {
+      if (current == null || isDelta(current.getFirst()) != isDelta(message)) {
+        current = new ArrayList<>();
+        segments.add(current);
+      }
+      current.add(message);
+    }
+    return segments;
+  }
+
+  private Mono<Void> send(List<OutboxMessage> segment) {
+    String mqttPrefix = segment.getFirst().getMqttPrefix();
+    if (isDelta(segment.getFirst())) {
+      // A device service without the delta endpoint gets the old full-refresh poke instead
+      return Mono.fromCallable(() -> readDeltas(segment))
+          .flatMap(
+              deltas ->
+                  deviceServiceWS
+                      .pushStateDeltas(deltas)
+                      .onErrorResume(
+                          WebClientResponseException.NotFound.class,
+                          e ->
+                              deviceServiceWS.sendNotifications(
+                                  List.of(
+                                      new DeviceNotificationDto(
+                                          DeviceNotificationDto.Type.REFRESH_STATE,
+                                          mqttPrefix,
+                                          null)))));
+    }
+    return Mono.fromCallable(() -> readNotifications(segment))
+        .flatMap(
+            notifications ->
+                deviceServiceWS.sendNotifications(notificationMerger.merge(notifications)));
+  }
+
+  private List<SystemStateDeltaDto> readDeltas(List<OutboxMessage> segment)
+      throws JsonProcessingException {
+    List<SystemStateDeltaDto> deltas = new ArrayList<>();
+    for (OutboxMessage message : segment) {
+      deltas.add(objectMapper.readValue(message.getPayload(), SystemStateDeltaDto.class));
+    }
+    return deltas;
+  }
+
+  private List<DeviceNotificationDto> readNotifications(List<OutboxMessage> segment)
+      throws JsonProcessingException {
+    List<DeviceNotificationDto> notifications = new ArrayList<>();
+    for (OutboxMessage message : segment) {
+      notifications.add(
+          message.getType() == OutboxMessageType.SUBSCRIBE
+              ? new DeviceNotificationDto(
+                  DeviceNotificationDto.Type.SUBSCRIBE,
+                  message.getMqttPrefix(),
+                  objectMapper.readTree(message.getPayload()))
+              : new DeviceNotificationDto(
+                  DeviceNotificationDto.Type.UNSUBSCRIBE, message.getMqttPrefix(), null));
+    }
+    return notifications;
+  }
+
+  private void record(GroupResult result, Instant now) {
+    if (!result.sent().isEmpty()) {
+      outboxMessageRepository.deleteAllInBatch(result.sent());
+      delivered.increment(result.sent().size());
+    }
+    if (result.error() == null) {
+      return;
+    }
+    List<OutboxMessage> remaining = new ArrayList<>(result.messages());
+    remaining.removeAll(result.sent());
+    if (remaining.isEmpty()) {
+      return;
+    }
+    failures.increment();
+    int attempts = remaining.getFirst().getAttempts() + 1;
+    Instant nextAttemptAt = now.plus(backoff(attempts));
+    String error = String.valueOf(result.error().getMessage());
+    logger.warn(
+        "Failed to deliver {} outbox messages for prefix {} (attempt {}), retrying at {}: {}",
+        remaining.size(),
+        remaining.getFirst().getMqttPrefix(),
+        attempts,
+        nextAttemptAt,
+        error);
+    for (OutboxMessage message : remaining) {
+      message.setAttempts(message.getAttempts() + 1);
+      message.setNextAttemptAt(nextAttemptAt);
+      message.setLastError(
+          error.length() > MAX_ERROR_LENGTH ? error.substring(0, MAX_ERROR_LENGTH) : error);
+    }
+    outboxMessageRepository.saveAll(remaining);
+  }
+
+  Duration backoff(int attempts) {
+    long factor = 1L << Math.min(attempts - 1, 20);
+    Duration delay = initialBackoff.multipliedBy(factor);
+    return delay.compareTo(maxBackoff) > 0 ? maxBackoff : delay;
+  }
+
+  /** Refreshes the backlog gauges after a poll that claimed messages, otherwise only sparingly. */
+  private void updateLag(Instant now, boolean claimedAny) {
+    if (!claimedAny && lagUpdatedAt.plus(LAG_REFRESH_INTERVAL).isAfter(now)) {
+      return;
+    }
+    lagUpdatedAt = now;
+    outboxMessageRepository
+        .findFirstByOrderByIdAsc()
+        .ifPresentOrElse(
+            oldest -> {
+              lagSeconds.set(Math.max(0, Duration.between(oldest.getCreatedAt(), now).toSeconds()));
+              pending.set(outboxMessageRepository.count());
+            },
+            () -> {
+              lagSeconds.set(0);
+              pending.set(0);
+            });
+  }
+
+  private static boolean isDelta(OutboxMessage message) {
+    return message.getType() == OutboxMessageType.STATE_DELTA;
+  }
+
+  private record GroupResult(
+      List<OutboxMessage> messages, List<OutboxMessage> sent, Throwable error) {}
+}
@@ -0,0 +1,149 @@
+package com.yh.sbps.api.integration;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/**
+ * Hedged requests for idempotent device-service reads. If a call has not answered within the
+ * configured percentile of recent call latencies, a second identical call is started and whichever
+ * answers first wins; the other is cancelled. Hedges draw on a budget that grows by {@code
+ * max-extra-load} per call, so they never add more than that fraction of upstream traffic.
+ */
+@Component
+public class RequestHedger {
+
+  private static final int SAMPLES = 512;
+  private static final int MIN_SAMPLES = 64;
+  private static final int RECOMPUTE_EVERY = 32;
+  private static final double MAX_BUDGET = 10;
+
+  private final boolean enabled;
+  private final double percentile;
+  private final Duration minDelay;
+  private final double maxExtraLoad;
+  private final AtomicLongArray latencies = new AtomicLongArray(SAMPLES);
+  private final AtomicLong recorded = new AtomicLong();
+  private final Counter calls;
+  private final Counter hedged;
+  private final Counter budgetExhausted;
+  private final Counter wins;
+  private volatile long delayNanos = -1;
+  private double budget;
+
+  @Autowired
+  public RequestHedger(
+      @Value("${device.client.hedging.enabled:false}") boolean enabled,
+      @Value("${device.client.hedging.percentile:0.95}") double percentile,
+      @Value("${device.client.hedging.min-delay:PT0.02S}") Duration minDelay,
+      @Value("${device.client.hedging.max-extra-load:0.05}") double maxExtraLoad,
+      MeterRegistry meterRegistry) {
+    this.enabled = enabled;
+    this.percentile = percentile;
+    this.minDelay = minDelay;
+    this.maxExtraLoad = maxExtraLoad;
+    this.calls = meterRegistry.counter("sbps.device.hedge.calls");
+    this.hedged = meterRegistry.counter("sbps.device.hedges", "result", "sent");
+    this.budgetExhausted =
+        meterRegistry.counter("sbps.device.hedges", "result", "budget_exhausted");
+    this.wins =
+        Counter.builder("sbps.device.hedge.wins")
+            .description("Calls answered by the hedge rather than the original request")
+            .register(meterRegistry);
+    Gauge.builder("sbps.device.hedge.delay", this, h -> Math.max(0, h.delayNanos) / 1e6)
+        .baseUnit("milliseconds")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Subscribes to {@code call} and, when hedging is enabled and warmed up, to a second copy after
+   * the hedge delay. Errors of the hedge are ignored; the original call's outcome decides.
+   */
+  public <T> Mono<T> hedge(Supplier<Mono<T>> call) {
+    if (!enabled) {
+      return Mono.defer(call);
+    }
+    return Mono.defer(
+        () -> {
+          calls.increment();
+          deposit();
+          Mono<Attempt<T>> primary = timed(call).map(value -> new Attempt<>(value, false));
+          long delay = delayNanos;
+          if (delay < 0) {
+            return primary.map(Attempt::value);
+          }
+          Mono<Attempt<T>> backup =
+              Mono.delay(Duration.ofNanos(delay))
+                  .flatMap(
+                      tick -> {
+                        if (!withdraw()) {
+                          budgetExhausted.increment();
+                          return Mono.never();
+                        }
+                        hedged.increment();
+                        // Not sampled: timed from the hedge delay, it would read as a fast call
+                        return Mono.defer(call).onErrorResume(e -> Mono.never());
+                      })
+                  .map(value -> new Attempt<>(value, true));
+          return Mono.firstWithSignal(primary, backup)
+              .doOnNext(
+                  attempt -> {
+                    if (attempt.hedge()) {
+                      wins.increment();
+                    }
+                  })
+              .map(Attempt::value);
+        });
+  }
+
+  /**
+   * Samples the original call's latency. A call cancelled because its hedge won is sampled too,
+   * with the time it ran so far: a lower bound that is at least the hedge delay. Leaving such calls
+   * out would drop exactly the slow tail, pull the quantile down and hedge ever more often.
+   */
+  private <T> Mono<T> timed(Supplier<Mono<T>> call) {
+    return Mono.defer(
+        () -> {
+          long start = System.nanoTime();
+          return call.get().doFinally(signal -> record(System.nanoTime() - start));
+        });
+  }
+
+  private void record(long nanos) {
+    long count = recorded.incrementAndGet();
+    latencies.set((int) ((count - 1) % SAMPLES), nanos);
+    if (count >= MIN_SAMPLES && count % RECOMPUTE_EVERY == 0) {
+      int size = (int) Math.min(count, SAMPLES);
+      long[] sorted = new long[size];
+      for (int i = 0; i < size; i++) {
+        sorted[i] = latencies.get(i);
+      }
+      Arrays.sort(sorted);
+      long quantile = sorted[Math.min(size - 1, (int) Math.ceil(percentile * size) - 1)];
+      delayNanos = Math.max(minDelay.toNanos(), quantile);
+    }
+  }
+
+  private synchronized void deposit() {
+    budget = Math.min(MAX_BUDGET, budget + maxExtraLoad);
+  }
+
+  private synchronized boolean withdraw() {
+    if (budget < 1) {
+      return false;
+    }
+    budget -= 1;
+    return true;
+  }
+
+  private record Attempt<T>(T value, boolean hedge) {}
+}
@@ -0,0 +1,136 @@
+package com.yh.sbps.api.integration;
+
+import com.yh.sbps.api.entity.Role;
+import com.yh.sbps.api.entity.User;
+import com.yh.sbps.api.repository.UserRepository;
+import com.yh.sbps.api.service.JwtService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Holds a single signed SERVICE_USER token for outbound calls to the device service and refreshes
+ * it in the background before it expires, so authenticating a request is just a header copy.
+ */
+@Component
+public class ServiceTokenManager {
+
+  private static final Logger logger = LoggerFactory.getLogger(ServiceTokenManager.class);
+  // A token this close to expiry is never handed out, even if the background refresh is late
+  private static final Duration MIN_REMAINING_VALIDITY = Duration.ofMinutes(1);
+
+  private final JwtService jwtService;
+  private final UserRepository userRepository;
+  private final Duration refreshAhead;
+  private final Scheduler blockingScheduler;
+  private final MeterRegistry meterRegistry;
+  private final Timer refreshTimer;
+  private final Counter refreshFailures;
+  // Not synchronized: refresh blocks on JDBC and may run on a virtual thread, which a monitor pins
+  private final ReentrantLock refreshLock = new ReentrantLock();
+  private volatile ServiceToken current;
+
+  public ServiceTokenManager(
+      JwtService jwtService,
+      UserRepository userRepository,
+      @Value("${device.service-token.refresh-ahead:PT1H}") Duration refreshAhead,
+      Scheduler blockingScheduler,
+      MeterRegistry meterRegistry) {
+    this.jwtService = jwtService;
+    this.userRepository = userRepository;
+    this.refreshAhead = refreshAhead;
+    this.blockingScheduler = blockingScheduler;
+    this.meterRegistry = meterRegistry;
+    this.refreshTimer =
+        Timer.builder("sbps.device.service_token.refresh")
+            .description("Time spent loading the service user and signing a new token")
+            .register(meterRegistry);
+    this.refreshFailures =
+        Counter.builder("sbps.device.service_token.refresh.failures").register(meterRegistry);
+    Gauge.builder("sbps.device.service_token.remaining_seconds", this, m -> m.remainingSeconds())
+        .description("Seconds until the current service token expires")
+        .register(meterRegistry);
+  }
+
+  public Mono<String> getToken() {
+    ServiceToken token = current;
+    if (token != null && !token.expiresWithin(MIN_REMAINING_VALIDITY)) {
+      return Mono.just(token.value());
+    }
+    return Mono.fromCallable(this::refresh).subscribeOn(blockingScheduler);
+  }
+
+  @Scheduled(
+      fixedDelayString = "${device.service-token.check-interval:PT5M}",
+      initialDelayString = "${device.service-token.check-interval:PT5M}")
+  public void refreshIfExpiring() {
+    ServiceToken token = current;
+    if (token != null && !token.expiresWithin(refreshAhead)) {
+      return;
+    }
+    try {
+      refresh();
+    } catch (RuntimeException e) {
+      logger.error("Proactive refresh of the service user token failed", e);
+    }
+  }
+
+  private String refresh() {
+    refreshLock.lock();
+    try {
+      return refreshLocked();
+    } finally {
+      refreshLock.unlock();
+    }
+  }
+
+  private String refreshLocked() {
+    ServiceToken token = current;
+    if (token != null && !token.expiresWithin(refreshAhead)) {
+      // Another caller refreshed while we were waiting for the lock
+      return token.value();
+    }
+    Timer.Sample sample = Timer.start(meterRegistry);
+    try {
+      User serviceUser =
+          userRepository
+              .findByRole(Role.SERVICE_USER)
+              .orElseThrow(() -> new RuntimeException("SERVICE_USER not found in database"));
+      String value = jwtService.generateToken(serviceUser);
+      Instant expiresAt = jwtService.parseClaims(value).getExpiration().toInstant();
+      current = new ServiceToken(value, expiresAt);
+      logger.debug("Service user token refreshed, valid until {}", expiresAt);
+      return value;
+    } catch (RuntimeException e) {
+      refreshFailures.increment();
+      throw e;
+    } finally {
+      sample.stop(refreshTimer);
+    }
+  }
+
+  private double remainingSeconds() {
+    ServiceToken token = current;
+    if (token == null) {
+      return 0;
+    }
+    return Math.max(0, Duration.between(Instant.now(), token.expiresAt()).toSeconds());
+  }
+
+  private record ServiceToken(String value, Instant expiresAt) {
+    boolean expiresWithin(Duration window) {
+      return Instant.now().plus(window).isAfter(expiresAt);
+    }
+  }
+}
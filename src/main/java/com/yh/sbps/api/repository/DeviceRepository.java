@@ -3,9 +3,12 @@ package com.yh.sbps.api.repository;
 import com.yh.sbps.api.entity.Device;
 import com.yh.sbps.api.entity.DeviceType;
 import com.yh.sbps.api.entity.User;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 @Repository
@@ -17,4 +20,11 @@ public interface DeviceRepository extends JpaRepository<Device, Long> {
   Optional<Device> findByMqttPrefix(String mqttPrefix);
 
   boolean existsByUserAndDeviceType(User user, DeviceType deviceType);
+
+  @Query("select d.user.id from Device d where d.id = :deviceId")
+  Optional<Long> findOwnerIdById(@Param("deviceId") Long deviceId);
+
+  @Query("select d.id from Device d where d.user.id = :userId and d.id in :deviceIds")
+  List<Long> findIdsOwnedByUser(
+      @Param("userId") Long userId, @Param("deviceIds") Collection<Long> deviceIds);
 }
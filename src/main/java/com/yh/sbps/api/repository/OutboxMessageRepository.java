@@ -0,0 +1,38 @@
+package com.yh.sbps.api.repository;
+
+import com.yh.sbps.api.entity.OutboxMessage;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface OutboxMessageRepository extends JpaRepository<OutboxMessage, Long> {
+  /** Locks the due messages, skipping rows another poller has locked (lock timeout -2). */
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+  List<OutboxMessage> findByNextAttemptAtLessThanEqualOrderByIdAsc(Instant now, Pageable page);
+
+  /**
+   * Prefixes with a message older than {@code before} outside {@code claimed}, i.e. still in
+   * backoff or held by another poller; their later messages must wait to keep order.
+   */
+  @Query(
+      "select distinct m.mqttPrefix from OutboxMessage m"
+          + " where m.mqttPrefix in :prefixes and m.id < :before and m.id not in :claimed")
+  List<String> findBlockedPrefixes(
+      @Param("prefixes") Collection<String> prefixes,
+      @Param("before") Long before,
+      @Param("claimed") Collection<Long> claimed);
+
+  Optional<OutboxMessage> findFirstByOrderByIdAsc();
+}
@@ -2,13 +2,28 @@ package com.yh.sbps.api.repository;
 
 import com.yh.sbps.api.entity.PushSubscription;
 import com.yh.sbps.api.entity.User;
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 @Repository
 public interface PushSubscriptionRepository extends JpaRepository<PushSubscription, Long> {
   List<PushSubscription> findAllByUser(User user);
 
+  List<PushSubscription> findAllByUserAndDisabledAtIsNull(User user);
+
   void deleteByEndpoint(String endpoint);
+
+  @Modifying
+  @Query("delete from PushSubscription s where s.id in :ids")
+  int deleteAllByIdIn(@Param("ids") Collection<Long> ids);
+
+  @Modifying
+  @Query("delete from PushSubscription s where s.disabledAt < :cutoff")
+  int deleteAllDisabledBefore(@Param("cutoff") Instant cutoff);
 }
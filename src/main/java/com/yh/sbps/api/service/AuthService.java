@@ -19,17 +19,20 @@ public class AuthService {
   private final PasswordEncoder passwordEncoder;
   private final JwtService jwtService;
   private final AuthenticationManager authenticationManager;
+  private final UserPrincipalCache userPrincipalCache;
 
   @Autowired
   public AuthService(
       UserRepository userRepository,
       PasswordEncoder passwordEncoder,
       JwtService jwtService,
-      AuthenticationManager authenticationManager) {
+      AuthenticationManager authenticationManager,
+      UserPrincipalCache userPrincipalCache) {
     this.userRepository = userRepository;
     this.passwordEncoder = passwordEncoder;
     this.jwtService = jwtService;
     this.authenticationManager = authenticationManager;
+    this.userPrincipalCache = userPrincipalCache;
   }
 
   public AuthResponseDto register(RegisterRequestDto request) {
@@ -47,6 +50,7 @@ public class AuthService {
             Role.USER);
 
     userRepository.save(user);
+    userPrincipalCache.invalidate(user.getUsername());
 
     String token = jwtService.generateToken(user);
 
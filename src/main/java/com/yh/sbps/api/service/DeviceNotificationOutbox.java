@@ -0,0 +1,64 @@
+package com.yh.sbps.api.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.yh.sbps.api.dto.SystemStateDeltaDto;
+import com.yh.sbps.api.entity.Device;
+import com.yh.sbps.api.entity.OutboxMessage;
+import com.yh.sbps.api.entity.OutboxMessageType;
+import com.yh.sbps.api.repository.OutboxMessageRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Records device-service notifications in the outbox table. Callers invoke it inside the
+ * transaction that changes the device or settings, so a notification exists if and only if the
+ * change was committed; {@code OutboxDispatcher} delivers it afterwards.
+ */
+@Service
+public class DeviceNotificationOutbox {
+
+  private final OutboxMessageRepository outboxMessageRepository;
+  private final ObjectMapper objectMapper;
+
+  @Autowired
+  public DeviceNotificationOutbox(
+      OutboxMessageRepository outboxMessageRepository, ObjectMapper objectMapper) {
+    this.outboxMessageRepository = outboxMessageRepository;
+    this.objectMapper = objectMapper;
+  }
+
+  @Transactional(propagation = Propagation.MANDATORY)
+  public void subscribe(Device device) {
+    ObjectNode payload = objectMapper.valueToTree(device);
+    if (payload.get("user") instanceof ObjectNode user) {
+      // The device service has no use for the owner's password hash; keep it out of the table
+      user.remove("password");
+    }
+    append(device.getMqttPrefix(), OutboxMessageType.SUBSCRIBE, payload.toString());
+  }
+
+  @Transactional(propagation = Propagation.MANDATORY)
+  public void unsubscribe(String mqttPrefix) {
+    append(mqttPrefix, OutboxMessageType.UNSUBSCRIBE, null);
+  }
+
+  @Transactional(propagation = Propagation.MANDATORY)
+  public void stateDelta(SystemStateDeltaDto delta) {
+    try {
+      append(
+          delta.getMqttPrefix(),
+          OutboxMessageType.STATE_DELTA,
+          objectMapper.writeValueAsString(delta));
+    } catch (JsonProcessingException e) {
+      throw new IllegalStateException("Could not serialize state delta " + delta, e);
+    }
+  }
+
+  private void append(String mqttPrefix, OutboxMessageType type, String payload) {
+    outboxMessageRepository.save(new OutboxMessage(mqttPrefix, type, payload));
+  }
+}
@@ -5,21 +5,27 @@ import static com.yh.sbps.api.entity.Role.SERVICE_USER;
 import com.yh.sbps.api.dto.DeviceRequestDto;
 import com.yh.sbps.api.dto.DeviceResponseDto;
 import com.yh.sbps.api.dto.SystemSettingsDto;
+import com.yh.sbps.api.dto.SystemStateDeltaDto;
 import com.yh.sbps.api.dto.SystemStateDto;
 import com.yh.sbps.api.entity.Device;
 import com.yh.sbps.api.entity.DeviceType;
 import com.yh.sbps.api.entity.User;
-import com.yh.sbps.api.integration.DeviceServiceWS;
 import com.yh.sbps.api.repository.DeviceRepository;
 import com.yh.sbps.api.repository.SystemSettingsRepository;
 import jakarta.persistence.EntityNotFoundException;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.server.ResponseStatusException;
 
 @Service
@@ -28,16 +34,21 @@ public class DeviceService {
   private static final Logger logger = LoggerFactory.getLogger(DeviceService.class);
   private final DeviceRepository deviceRepository;
   private final SystemSettingsRepository systemSettingsRepository;
-  private final DeviceServiceWS deviceServiceWS;
+  private final SystemStateCache systemStateCache;
+  private final DeviceNotificationOutbox deviceNotificationOutbox;
+  // deviceId -> owner userId; kept coherent by saveDevice/updateDevice/deleteDevice
+  private final Map<Long, Long> deviceOwnerIndex = new ConcurrentHashMap<>();
 
   @Autowired
   public DeviceService(
       DeviceRepository deviceRepository,
       SystemSettingsRepository systemSettingsRepository,
-      DeviceServiceWS deviceServiceWS) {
+      SystemStateCache systemStateCache,
+      DeviceNotificationOutbox deviceNotificationOutbox) {
     this.deviceRepository = deviceRepository;
     this.systemSettingsRepository = systemSettingsRepository;
-    this.deviceServiceWS = deviceServiceWS;
+    this.systemStateCache = systemStateCache;
+    this.deviceNotificationOutbox = deviceNotificationOutbox;
   }
 
   public List<Device> getAllDevices(User user) {
@@ -51,6 +62,34 @@ public class DeviceService {
     return deviceRepository.findById(id);
   }
 
+  /**
+   * Checks device ownership without loading the device entity. Owners are looked up with an id-only
+   * query once and then served from memory; unknown devices are not cached.
+   */
+  public boolean isDeviceOwnedBy(Long deviceId, Long userId) {
+    if (deviceId == null || userId == null) {
+      return false;
+    }
+    Long ownerId = deviceOwnerIndex.get(deviceId);
+    if (ownerId == null) {
+      ownerId = deviceRepository.findOwnerIdById(deviceId).orElse(null);
+      if (ownerId == null) {
+        return false;
+      }
+      deviceOwnerIndex.put(deviceId, ownerId);
+    }
+    return ownerId.equals(userId);
+  }
+
+  /** Returns the subset of {@code deviceIds} owned by {@code user}, using a single query. */
+  public Set<Long> getOwnedDeviceIds(User user, Collection<Long> deviceIds) {
+    if (deviceIds.isEmpty()) {
+      return Set.of();
+    }
+    return new HashSet<>(deviceRepository.findIdsOwnedByUser(user.getId(), deviceIds));
+  }
+
+  @Transactional
   public Device saveDevice(DeviceRequestDto deviceDto, User user) {
     if (deviceDto.getDeviceType() == DeviceType.POWER_MONITOR
         || deviceDto.getDeviceType() == DeviceType.GRID_MONITOR) {
@@ -67,13 +106,25 @@ public class DeviceService {
     Device device = DeviceRequestDto.toEntity(null, deviceDto);
     device.setUser(user);
     Device saved = deviceRepository.save(device);
-    deviceServiceWS.notifyDeviceUpdate(saved);
-    if (saved.getDeviceType() == DeviceType.POWER_MONITOR) {
-      deviceServiceWS.notifyStateRefresh(saved.getMqttPrefix());
+    deviceOwnerIndex.put(saved.getId(), user.getId());
+    long sequence = systemStateCache.invalidate(user.getId());
+    deviceNotificationOutbox.subscribe(saved);
+    String monitorPrefix =
+        saved.getDeviceType() == DeviceType.POWER_MONITOR
+            ? saved.getMqttPrefix()
+            : findMonitorPrefixForUser(user);
+    if (monitorPrefix != null) {
+      deviceNotificationOutbox.stateDelta(
+          SystemStateDeltaDto.deviceUpserted(
+              monitorPrefix,
+              systemStateCache.getEpoch(),
+              sequence,
+              DeviceResponseDto.from(saved)));
     }
     return saved;
   }
 
+  @Transactional
   public Device updateDevice(Long id, DeviceRequestDto deviceDetailsDto, User user) {
     Device existingDevice =
         deviceRepository
@@ -104,30 +155,38 @@ public class DeviceService {
 
     DeviceRequestDto.toEntity(existingDevice, deviceDetailsDto);
     Device saved = deviceRepository.save(existingDevice);
+    deviceOwnerIndex.put(saved.getId(), user.getId());
+    long sequence = systemStateCache.invalidate(user.getId());
 
     String newMqttPrefix = saved.getMqttPrefix();
     String monitorPrefixForRefresh = null;
     if (oldMqttPrefix != null && !oldMqttPrefix.equals(newMqttPrefix)) {
       logger.info("MQTT prefix changed for device {}. Re-subscribing.", saved.getName());
-      deviceServiceWS.notifyDeviceDelete(oldMqttPrefix);
-      deviceServiceWS.notifyDeviceUpdate(saved);
+      deviceNotificationOutbox.unsubscribe(oldMqttPrefix);
+      deviceNotificationOutbox.subscribe(saved);
     }
 
     if (saved.getDeviceType() == DeviceType.POWER_MONITOR) {
       monitorPrefixForRefresh = newMqttPrefix;
     } else if (oldType == DeviceType.POWER_MONITOR && newType != DeviceType.POWER_MONITOR) {
-      deviceServiceWS.notifyDeviceDelete(oldMqttPrefix);
+      deviceNotificationOutbox.unsubscribe(oldMqttPrefix);
     } else {
       monitorPrefixForRefresh = findMonitorPrefixForUser(user);
     }
 
     if (monitorPrefixForRefresh != null) {
-      deviceServiceWS.notifyStateRefresh(monitorPrefixForRefresh);
+      deviceNotificationOutbox.stateDelta(
+          SystemStateDeltaDto.deviceUpserted(
+              monitorPrefixForRefresh,
+              systemStateCache.getEpoch(),
+              sequence,
+              DeviceResponseDto.from(saved)));
     }
 
     return saved;
   }
 
+  @Transactional
   public void deleteDevice(Long id, User user) {
     Device device =
         deviceRepository
@@ -143,16 +202,34 @@ public class DeviceService {
 
     String monitorPrefix = findMonitorPrefixForUser(user);
     if (device.getMqttPrefix() != null) {
-      deviceServiceWS.notifyDeviceDelete(device.getMqttPrefix());
+      deviceNotificationOutbox.unsubscribe(device.getMqttPrefix());
     }
+    deviceRepository.deleteById(id);
+    deviceOwnerIndex.remove(id);
+    long sequence = systemStateCache.invalidate(user.getId());
+
     if (monitorPrefix != null) {
-      deviceServiceWS.notifyStateRefresh(monitorPrefix);
+      deviceNotificationOutbox.stateDelta(
+          SystemStateDeltaDto.deviceRemoved(
+              monitorPrefix, systemStateCache.getEpoch(), sequence, id));
     }
-
-    deviceRepository.deleteById(id);
   }
 
   public SystemStateDto getSystemStateByMqttPrefix(String mqttPrefix) {
+    return getSystemStateSnapshot(mqttPrefix).state();
+  }
+
+  /**
+   * Returns the cached system state of the user owning {@code mqttPrefix}. The snapshot is rebuilt
+   * only after that user's devices or settings change.
+   */
+  public SystemStateCache.Snapshot getSystemStateSnapshot(String mqttPrefix) {
+    User user =
+        systemStateCache.ownerForMqttPrefix(mqttPrefix, () -> findOwnerByMqttPrefix(mqttPrefix));
+    return systemStateCache.get(user.getId(), () -> loadSystemState(user));
+  }
+
+  private User findOwnerByMqttPrefix(String mqttPrefix) {
     Device device =
         deviceRepository
             .findByMqttPrefix(mqttPrefix)
@@ -164,6 +241,10 @@ public class DeviceService {
     if (user == null) {
       throw new IllegalStateException("Device is not associated with any user");
     }
+    return user;
+  }
+
+  private SystemStateDto loadSystemState(User user) {
     SystemSettingsDto systemSettings =
         SystemSettingsDto.fromEntity(
             systemSettingsRepository
@@ -0,0 +1,63 @@
+package com.yh.sbps.api.service;
+
+import com.yh.sbps.api.dto.DeviceStatusIngestResultDto;
+import com.yh.sbps.api.dto.DeviceStatusUpdateDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Entry point for device status updates pushed by the device service, over HTTP or the streaming
+ * ingest socket. Every update is recorded, then each user's updates go to the WebSocket and SSE
+ * publishers in one pass, keeping their order.
+ */
+@Service
+public class DeviceStatusIngestService {
+
+  private final DeviceStatusService deviceStatusService;
+  private final WebSocketService webSocketService;
+  private final DeviceStatusStreamService deviceStatusStreamService;
+  private final Counter accepted;
+  private final Counter rejected;
+
+  @Autowired
+  public DeviceStatusIngestService(
+      DeviceStatusService deviceStatusService,
+      WebSocketService webSocketService,
+      DeviceStatusStreamService deviceStatusStreamService,
+      MeterRegistry meterRegistry) {
+    this.deviceStatusService = deviceStatusService;
+    this.webSocketService = webSocketService;
+    this.deviceStatusStreamService = deviceStatusStreamService;
+    this.accepted = meterRegistry.counter("sbps.device.ingest.updates", "result", "accepted");
+    this.rejected = meterRegistry.counter("sbps.device.ingest.updates", "result", "rejected");
+  }
+
+  /** Updates without a username are neither recorded nor published, and counted as rejected. */
+  public DeviceStatusIngestResultDto ingest(List<DeviceStatusUpdateDto> deviceStatusUpdates) {
+    Map<String, List<DeviceStatusUpdateDto>> byUsername = new LinkedHashMap<>();
+    int rejectedCount = 0;
+    for (DeviceStatusUpdateDto update : deviceStatusUpdates) {
+      if (update.getUsername() == null) {
+        rejectedCount++;
+      } else {
+        deviceStatusService.recordUpdate(update);
+        byUsername.computeIfAbsent(update.getUsername(), name -> new ArrayList<>()).add(update);
+      }
+    }
+    byUsername.forEach(
+        (username, updates) -> {
+          webSocketService.broadcastDeviceUpdates(username, updates);
+          updates.forEach(update -> deviceStatusStreamService.publish(username, update));
+        });
+    int acceptedCount = deviceStatusUpdates.size() - rejectedCount;
+    accepted.increment(acceptedCount);
+    rejected.increment(rejectedCount);
+    return new DeviceStatusIngestResultDto(acceptedCount, rejectedCount);
+  }
+}
@@ -0,0 +1,209 @@
+package com.yh.sbps.api.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.yh.sbps.api.dto.DeviceStatusDto;
+import com.yh.sbps.api.dto.DeviceStatusUpdateDto;
+import com.yh.sbps.api.integration.DeviceServiceWS;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+/**
+ * Latest known status per device, fed by the pushes the device service sends to {@code
+ * /internal/device-update}. Read endpoints are served from here while an entry is younger than
+ * {@code device.status-cache.max-age}; missing or stale entries are fetched from the device
+ * service and stored. When that fetch fails, e.g. because the device-service circuit breaker is
+ * open, the last known status is served regardless of age, marked with a {@code Warning} header.
+ * At most {@code device.status-cache.max-size} devices are retained.
+ */
+@Service
+public class DeviceStatusService {
+
+  private static final String STALE_WARNING = "110 - \"Response is Stale\"";
+
+  private final DeviceServiceWS deviceServiceWS;
+  private final Duration maxAge;
+  private final Cache<Long, CachedStatus> statuses;
+  private final Counter cacheHits;
+  private final Counter cacheMisses;
+  private final Counter staleServed;
+
+  @Autowired
+  public DeviceStatusService(
+      DeviceServiceWS deviceServiceWS,
+      @Value("${device.status-cache.max-age:PT30S}") Duration maxAge,
+      @Value("${device.status-cache.max-size:10000}") long maxSize,
+      MeterRegistry meterRegistry) {
+    this.deviceServiceWS = deviceServiceWS;
+    this.maxAge = maxAge;
+    this.statuses = Caffeine.newBuilder().maximumSize(maxSize).build();
+    this.cacheHits =
+        Counter.builder("sbps.device.status_cache").tag("result", "hit").register(meterRegistry);
+    this.cacheMisses =
+        Counter.builder("sbps.device.status_cache").tag("result", "miss").register(meterRegistry);
+    this.staleServed = meterRegistry.counter("sbps.device.status_cache.stale_served");
+    meterRegistry.gauge("sbps.device.status_cache.size", statuses, Cache::estimatedSize);
+  }
+
+  public void recordUpdate(DeviceStatusUpdateDto update) {
+    if (update.getDeviceId() == null) return;
+    statuses
+        .asMap()
+        .compute(
+            update.getDeviceId(),
+            (id, previous) -> {
+              // Each field keeps its own age, so a partial push does not refresh the other one
+              CachedStatus base = previous != null ? previous : CachedStatus.UNKNOWN;
+              Instant now = Instant.now();
+              boolean onlineUpdated = update.getIsOnline() != null;
+              boolean statusUpdated = update.getStatusJson() != null;
+              return new CachedStatus(
+                  onlineUpdated ? update.getIsOnline() : base.online(),
+                  onlineUpdated ? now : base.onlineAt(),
+                  statusUpdated ? update.getStatusJson() : base.statusJson(),
+                  statusUpdated ? now : base.statusAt());
+            });
+  }
+
+  public Mono<Map<Long, DeviceStatusDto>> getStatuses(List<Long> deviceIds) {
+    Map<Long, DeviceStatusDto> result = new HashMap<>();
+    List<Long> missing = new ArrayList<>();
+    Instant cutoff = cutoff();
+    for (Long deviceId : deviceIds) {
+      CachedStatus cached = statuses.getIfPresent(deviceId);
+      if (cached != null
+          && cached.onlineFresh(cutoff)
+          && (cached.statusJson() == null || cached.statusFresh(cutoff))) {
+        cacheHits.increment();
+        result.put(deviceId, cached.toDto());
+      } else {
+        cacheMisses.increment();
+        missing.add(deviceId);
+      }
+    }
+    if (missing.isEmpty()) {
+      return Mono.just(result);
+    }
+    return deviceServiceWS
+        .getAllStatusesAsync(missing)
+        .defaultIfEmpty(Map.of())
+        .map(
+            fetched -> {
+              fetched.forEach(this::store);
+              result.putAll(fetched);
+              return result;
+            })
+        .onErrorResume(e -> staleStatuses(missing, result, e));
+  }
+
+  public Mono<ResponseEntity<JsonNode>> getStatus(Long deviceId) {
+    Instant cutoff = cutoff();
+    CachedStatus cached = statuses.getIfPresent(deviceId);
+    if (cached != null
+        && cached.onlineFresh(cutoff)
+        && cached.online()
+        && cached.statusFresh(cutoff)) {
+      cacheHits.increment();
+      return Mono.just(ResponseEntity.ok(cached.statusJson()));
+    }
+    cacheMisses.increment();
+    return withStaleFallback(
+        deviceId, deviceServiceWS.getStatusAsync(deviceId), CachedStatus::statusJson);
+  }
+
+  public Mono<ResponseEntity<Boolean>> getOnline(Long deviceId) {
+    CachedStatus cached = statuses.getIfPresent(deviceId);
+    if (cached != null && cached.onlineFresh(cutoff())) {
+      cacheHits.increment();
+      return Mono.just(ResponseEntity.ok(cached.online()));
+    }
+    cacheMisses.increment();
+    return withStaleFallback(
+        deviceId, deviceServiceWS.getOnlineAsync(deviceId), CachedStatus::online);
+  }
+
+  /** Replaces a failed or 5xx device-service read with the last known value, if there is one. */
+  private <T> Mono<ResponseEntity<T>> withStaleFallback(
+      Long deviceId, Mono<ResponseEntity<T>> call, Function<CachedStatus, T> value) {
+    return call.flatMap(
+            response ->
+                response.getStatusCode().is5xxServerError()
+                    ? stale(deviceId, value).defaultIfEmpty(response)
+                    : Mono.just(response))
+        .onErrorResume(e -> stale(deviceId, value).switchIfEmpty(Mono.error(e)));
+  }
+
+  /** Completes {@code result} with last known statuses, or rethrows if any device has none. */
+  private Mono<Map<Long, DeviceStatusDto>> staleStatuses(
+      List<Long> deviceIds, Map<Long, DeviceStatusDto> result, Throwable error) {
+    for (Long deviceId : deviceIds) {
+      CachedStatus cached = statuses.getIfPresent(deviceId);
+      if (cached == null || cached.online() == null) {
+        return Mono.error(error);
+      }
+      result.put(deviceId, cached.toDto());
+    }
+    staleServed.increment(deviceIds.size());
+    return Mono.just(result);
+  }
+
+  private <T> Mono<ResponseEntity<T>> stale(Long deviceId, Function<CachedStatus, T> value) {
+    CachedStatus cached = statuses.getIfPresent(deviceId);
+    if (cached == null || value.apply(cached) == null) {
+      return Mono.empty();
+    }
+    staleServed.increment();
+    return Mono.just(
+        ResponseEntity.ok().header(HttpHeaders.WARNING, STALE_WARNING).body(value.apply(cached)));
+  }
+
+  /** Values written before this are no longer served without asking the device service. */
+  private Instant cutoff() {
+    return Instant.now().minus(maxAge);
+  }
+
+  private void store(Long deviceId, DeviceStatusDto status) {
+    if (deviceId == null || status == null) return;
+    Instant now = Instant.now();
+    statuses.put(
+        deviceId,
+        new CachedStatus(
+            status.isOnline(),
+            now,
+            status.getStatusJson(),
+            status.getStatusJson() != null ? now : null));
+  }
+
+  /** {@code online} is null until a push or fetch has reported it; it is never assumed. */
+  private record CachedStatus(
+      Boolean online, Instant onlineAt, JsonNode statusJson, Instant statusAt) {
+    static final CachedStatus UNKNOWN = new CachedStatus(null, null, null, null);
+
+    boolean onlineFresh(Instant cutoff) {
+      return online != null && onlineAt.isAfter(cutoff);
+    }
+
+    boolean statusFresh(Instant cutoff) {
+      return statusJson != null && statusAt.isAfter(cutoff);
+    }
+
+    /** Only for entries whose {@code online} is known. */
+    DeviceStatusDto toDto() {
+      return new DeviceStatusDto(online, statusJson);
+    }
+  }
+}
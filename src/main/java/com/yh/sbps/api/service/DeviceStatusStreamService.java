@@ -0,0 +1,299 @@
+package com.yh.sbps.api.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.Disposable;
+import reactor.core.Exceptions;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Per-user Server-Sent Events stream of device status updates. A new client first receives a
+ * {@code snapshot} event with all its device statuses, then every {@code status} update as it is
+ * ingested. Each user keeps the last {@code buffer-size} updates, so a client reconnecting with
+ * {@code Last-Event-ID} gets only what it missed instead of a fresh snapshot. Updates are only
+ * buffered for users with a connected client or one that left less than {@code resume-window}
+ * ago; later reconnects get a snapshot.
+ */
+@Service
+public class DeviceStatusStreamService {
+
+  private static final Logger logger = LoggerFactory.getLogger(DeviceStatusStreamService.class);
+
+  private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+  // Distinguishes a user's recreated stream, whose sequence restarts, from the dropped one
+  private final AtomicLong generations = new AtomicLong();
+  private final Cache<String, UserStream> streams;
+  private final int bufferSize;
+  private final int subscriberBuffer;
+  private final Duration heartbeatInterval;
+  private final Duration timeout;
+  private final Duration resumeWindow;
+  private final Scheduler blockingScheduler;
+  private final AtomicInteger subscribers = new AtomicInteger();
+  private final Counter resumed;
+  private final Counter dropped;
+
+  @Autowired
+  public DeviceStatusStreamService(
+      @Value("${device.status-stream.buffer-size:256}") int bufferSize,
+      @Value("${device.status-stream.subscriber-buffer:256}") int subscriberBuffer,
+      @Value("${device.status-stream.heartbeat-interval:PT15S}") Duration heartbeatInterval,
+      @Value("${device.status-stream.timeout:PT30M}") Duration timeout,
+      @Value("${device.status-stream.resume-window:PT5M}") Duration resumeWindow,
+      Scheduler blockingScheduler,
+      MeterRegistry meterRegistry) {
+    this.bufferSize = bufferSize;
+    this.subscriberBuffer = subscriberBuffer;
+    this.heartbeatInterval = heartbeatInterval;
+    this.timeout = timeout;
+    this.resumeWindow = resumeWindow;
+    this.streams = Caffeine.newBuilder().expireAfter(new IdleExpiry()).build();
+    this.blockingScheduler = blockingScheduler;
+    this.resumed = meterRegistry.counter("sbps.status_stream.resumed");
+    this.dropped =
+        Counter.builder("sbps.status_stream.dropped")
+            .description("Updates dropped because a client read too slowly")
+            .register(meterRegistry);
+    Gauge.builder("sbps.status_stream.subscribers", subscribers, AtomicInteger::get)
+        .register(meterRegistry);
+    meterRegistry.gauge("sbps.status_stream.users", streams, Cache::estimatedSize);
+  }
+
+  /**
+   * Records an update for the user and hands it to the user's connected clients. Dropped when the
+   * user has no stream, since nobody could resume from it.
+   */
+  public void publish(String username, Object update) {
+    if (username == null) return;
+    // Quiet lookup: publishing must not keep an abandoned stream alive
+    UserStream stream = streams.policy().getIfPresentQuietly(username);
+    if (stream != null) {
+      stream.publish(update);
+    }
+  }
+
+  /**
+   * Opens an SSE connection for the user. {@code snapshot} is only subscribed when the client
+   * cannot be resumed from {@code lastEventId}. Heartbeat comments keep proxies from closing an
+   * idle connection.
+   */
+  public SseEmitter subscribe(String username, String lastEventId, Supplier<Mono<?>> snapshot) {
+    SseEmitter emitter = new SseEmitter(timeout.toMillis());
+    ServerSentEvent<?> heartbeat = ServerSentEvent.builder().comment("heartbeat").build();
+    Flux<ServerSentEvent<?>> heartbeats = Flux.interval(heartbeatInterval).map(tick -> heartbeat);
+    Disposable subscription =
+        Flux.merge(events(username, lastEventId, snapshot), heartbeats)
+            // Writes block on the client socket, so they must not run on the publishing thread
+            .publishOn(blockingScheduler, 32)
+            .doOnSubscribe(s -> subscribers.incrementAndGet())
+            .doFinally(signal -> subscribers.decrementAndGet())
+            .subscribe(
+                event -> send(emitter, event),
+                error -> {
+                  if (!(Exceptions.unwrap(error) instanceof IOException)) {
+                    emitter.completeWithError(error);
+                  }
+                },
+                emitter::complete);
+    emitter.onCompletion(subscription::dispose);
+    emitter.onTimeout(subscription::dispose);
+    emitter.onError(error -> subscription.dispose());
+    return emitter;
+  }
+
+  /**
+   * Events for one client: the buffered updates after {@code lastEventId} if that id can still be
+   * resumed from, otherwise a snapshot followed by the updates published since it was requested.
+   * A client that falls more than {@code subscriber-buffer} events behind loses the oldest ones.
+   */
+  public Flux<ServerSentEvent<?>> events(
+      String username, String lastEventId, Supplier<Mono<?>> snapshot) {
+    UserStream stream = streams.get(username, UserStream::new);
+    long resumeFrom = stream.parseEventId(lastEventId);
+    Flux<ServerSentEvent<?>> events;
+    if (resumeFrom >= 0 && stream.canResumeFrom(resumeFrom)) {
+      resumed.increment();
+      events = stream.updatesAfter(resumeFrom);
+    } else {
+      // Updates racing with the snapshot are replayed after it; applying one twice is harmless
+      long snapshotId = stream.lastId();
+      events =
+          snapshot
+              .get()
+              .<ServerSentEvent<?>>map(
+                  state ->
+                      ServerSentEvent.builder(state)
+                          .id(stream.eventId(snapshotId))
+                          .event("snapshot")
+                          .build())
+              .concatWith(stream.updatesAfter(snapshotId));
+    }
+    return events.onBackpressureBuffer(
+        subscriberBuffer, event -> dropped.increment(), BufferOverflowStrategy.DROP_OLDEST);
+  }
+
+  private static void send(SseEmitter emitter, ServerSentEvent<?> event) {
+    SseEmitter.SseEventBuilder builder = SseEmitter.event();
+    if (event.comment() != null) {
+      builder.comment(event.comment());
+    }
+    if (event.id() != null) {
+      builder.id(event.id());
+    }
+    if (event.event() != null) {
+      builder.name(event.event());
+    }
+    if (event.data() != null) {
+      builder.data(event.data());
+    }
+    try {
+      emitter.send(builder);
+    } catch (IOException e) {
+      logger.debug("Status stream client went away: {}", e.getMessage());
+      throw Exceptions.propagate(e);
+    }
+  }
+
+  /** Re-arms the stream's expiry after its listeners changed; a no-op once it was dropped. */
+  private void refreshExpiry(UserStream stream) {
+    streams
+        .policy()
+        .expireVariably()
+        .ifPresent(
+            expiry ->
+                expiry.setExpiresAfter(
+                    stream.username, idleNanos(stream), TimeUnit.NANOSECONDS));
+  }
+
+  private long idleNanos(UserStream stream) {
+    return stream.listening > 0 ? Long.MAX_VALUE : resumeWindow.toNanos();
+  }
+
+  /** Keeps a stream while it has listeners, and for {@code resume-window} after the last one. */
+  private final class IdleExpiry implements Expiry<String, UserStream> {
+
+    @Override
+    public long expireAfterCreate(String key, UserStream stream, long currentTime) {
+      return idleNanos(stream);
+    }
+
+    @Override
+    public long expireAfterUpdate(
+        String key, UserStream stream, long currentTime, long currentDuration) {
+      return expireAfterCreate(key, stream, currentTime);
+    }
+
+    @Override
+    public long expireAfterRead(
+        String key, UserStream stream, long currentTime, long currentDuration) {
+      return expireAfterCreate(key, stream, currentTime);
+    }
+  }
+
+  private final class UserStream {
+
+    private final String username;
+    private final String idPrefix;
+    private final Deque<BufferedEvent> buffer = new ArrayDeque<>();
+    private final List<FluxSink<ServerSentEvent<?>>> listeners = new ArrayList<>();
+    private long lastId;
+    // Read by the cache's expiry policy, which must not wait for this stream's lock
+    private volatile int listening;
+
+    UserStream(String username) {
+      this.username = username;
+      this.idPrefix = epoch + "." + Long.toString(generations.incrementAndGet(), 36) + "-";
+    }
+
+    String eventId(long sequence) {
+      return idPrefix + sequence;
+    }
+
+    /** Returns the sequence of an event id issued by this stream, or -1. */
+    long parseEventId(String lastEventId) {
+      if (lastEventId == null || !lastEventId.startsWith(idPrefix)) {
+        return -1;
+      }
+      try {
+        return Long.parseLong(lastEventId.substring(idPrefix.length()));
+      } catch (NumberFormatException e) {
+        return -1;
+      }
+    }
+
+    synchronized void publish(Object update) {
+      lastId++;
+      ServerSentEvent<?> event =
+          ServerSentEvent.builder(update).id(eventId(lastId)).event("status").build();
+      buffer.addLast(new BufferedEvent(lastId, event));
+      if (buffer.size() > bufferSize) {
+        buffer.removeFirst();
+      }
+      listeners.forEach(listener -> listener.next(event));
+    }
+
+    synchronized long lastId() {
+      return lastId;
+    }
+
+    /** True if every update after {@code sequence} is still buffered. */
+    synchronized boolean canResumeFrom(long sequence) {
+      if (sequence == lastId) {
+        return true;
+      }
+      return sequence < lastId && !buffer.isEmpty() && buffer.getFirst().sequence() <= sequence + 1;
+    }
+
+    /** Replays buffered updates after {@code sequence} and then follows live ones, gap-free. */
+    Flux<ServerSentEvent<?>> updatesAfter(long sequence) {
+      return Flux.create(
+          sink -> {
+            synchronized (this) {
+              for (BufferedEvent buffered : buffer) {
+                if (buffered.sequence() > sequence) {
+                  sink.next(buffered.event());
+                }
+              }
+              listeners.add(sink);
+              listening = listeners.size();
+            }
+            refreshExpiry(this);
+            sink.onDispose(
+                () -> {
+                  synchronized (this) {
+                    listeners.remove(sink);
+                    listening = listeners.size();
+                  }
+                  refreshExpiry(this);
+                });
+          });
+    }
+  }
+
+  private record BufferedEvent(long sequence, ServerSentEvent<?> event) {}
+}
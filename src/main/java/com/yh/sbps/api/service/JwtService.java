@@ -1,14 +1,27 @@
 package com.yh.sbps.api.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.yh.sbps.api.entity.User;
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import javax.crypto.SecretKey;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
@@ -16,20 +29,64 @@ import org.springframework.stereotype.Service;
 @Service
 public class JwtService {
 
-  @Value("${jwt.secret}")
-  private String secretKey;
+  public static final String USER_ID_CLAIM = "uid";
+  public static final String ROLE_CLAIM = "role";
+
+  // Upper bound for tokens that carry no (or a very distant) expiration claim
+  private static final Duration MAX_CACHED_TOKEN_TTL = Duration.ofHours(24);
+
+  private final SecretKey signInKey;
+  private final JwtParser jwtParser;
+  private final Cache<String, Claims> verifiedClaimsCache;
+
+  @Autowired
+  public JwtService(
+      @Value("${jwt.secret}") String secretKey,
+      @Value("${jwt.cache.max-size:10000}") long claimsCacheMaxSize,
+      MeterRegistry meterRegistry) {
+    this.signInKey = Keys.hmacShaKeyFor(secretKey.getBytes(StandardCharsets.UTF_8));
+    this.jwtParser = Jwts.parser().verifyWith(signInKey).build();
+    this.verifiedClaimsCache =
+        Caffeine.newBuilder()
+            .maximumSize(claimsCacheMaxSize)
+            .expireAfter(new ClaimsExpiry())
+            .recordStats()
+            .build();
+    CaffeineCacheMetrics.monitor(meterRegistry, verifiedClaimsCache, "jwt.claims");
+  }
 
   public String extractUsername(String token) {
     return extractClaim(token, Claims::getSubject);
   }
 
   public <T> T extractClaim(String token, Function<Claims, T> claimsResolver) {
-    final Claims claims = extractAllClaims(token);
+    final Claims claims = parseClaims(token);
     return claimsResolver.apply(claims);
   }
 
+  /**
+   * Verifies the token signature once and returns its claims. Verified claims are cached by token
+   * digest until the token's {@code exp}, so repeated requests with the same bearer token skip the
+   * HMAC verification entirely.
+   */
+  public Claims parseClaims(String token) {
+    String cacheKey = digest(token);
+    Claims cached = verifiedClaimsCache.getIfPresent(cacheKey);
+    if (cached != null) {
+      return cached;
+    }
+    Claims claims = jwtParser.parseSignedClaims(token).getPayload();
+    verifiedClaimsCache.put(cacheKey, claims);
+    return claims;
+  }
+
   public String generateToken(UserDetails userDetails) {
-    return generateToken(new HashMap<>(), userDetails);
+    Map<String, Object> claims = new HashMap<>();
+    if (userDetails instanceof User user && user.getId() != null && user.getRole() != null) {
+      claims.put(USER_ID_CLAIM, user.getId());
+      claims.put(ROLE_CLAIM, user.getRole().name());
+    }
+    return generateToken(claims, userDetails);
   }
 
   public String generateToken(Map<String, Object> extraClaims, UserDetails userDetails) {
@@ -38,28 +95,56 @@ public class JwtService {
         .subject(userDetails.getUsername())
         .issuedAt(new Date(System.currentTimeMillis()))
         .expiration(new Date(System.currentTimeMillis() + 1000 * 60 * 60 * 24)) // 24 hours
-        .signWith(getSignInKey())
+        .signWith(signInKey)
         .compact();
   }
 
   public boolean isTokenValid(String token, UserDetails userDetails) {
-    final String username = extractUsername(token);
-    return (username.equals(userDetails.getUsername())) && !isTokenExpired(token);
+    return isTokenValid(parseClaims(token), userDetails);
   }
 
-  private boolean isTokenExpired(String token) {
-    return extractExpiration(token).before(new Date());
+  public boolean isTokenValid(Claims claims, UserDetails userDetails) {
+    return claims.getSubject().equals(userDetails.getUsername()) && !isTokenExpired(claims);
   }
 
-  private Date extractExpiration(String token) {
-    return extractClaim(token, Claims::getExpiration);
+  private boolean isTokenExpired(Claims claims) {
+    return claims.getExpiration().before(new Date());
   }
 
-  private Claims extractAllClaims(String token) {
-    return Jwts.parser().verifyWith(getSignInKey()).build().parseSignedClaims(token).getPayload();
+  private static String digest(String token) {
+    try {
+      MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+      byte[] hash = sha256.digest(token.getBytes(StandardCharsets.UTF_8));
+      return Base64.getEncoder().encodeToString(hash);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
   }
 
-  private SecretKey getSignInKey() {
-    return Keys.hmacShaKeyFor(secretKey.getBytes(StandardCharsets.UTF_8));
+  /** Evicts cached claims exactly when the token itself expires. */
+  private static final class ClaimsExpiry implements Expiry<String, Claims> {
+
+    @Override
+    public long expireAfterCreate(String key, Claims claims, long currentTime) {
+      Date expiration = claims.getExpiration();
+      if (expiration == null) {
+        return MAX_CACHED_TOKEN_TTL.toNanos();
+      }
+      long remainingMillis = expiration.getTime() - System.currentTimeMillis();
+      long boundedMillis = Math.min(remainingMillis, MAX_CACHED_TOKEN_TTL.toMillis());
+      return TimeUnit.MILLISECONDS.toNanos(Math.max(0, boundedMillis));
+    }
+
+    @Override
+    public long expireAfterUpdate(
+        String key, Claims claims, long currentTime, long currentDuration) {
+      return expireAfterCreate(key, claims, currentTime);
+    }
+
+    @Override
+    public long expireAfterRead(
+        String key, Claims claims, long currentTime, long currentDuration) {
+      return currentDuration;
+    }
   }
 }
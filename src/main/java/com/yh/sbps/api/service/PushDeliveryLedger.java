@@ -0,0 +1,141 @@
+package com.yh.sbps.api.service;
+
+import com.yh.sbps.api.entity.PushSubscription;
+import com.yh.sbps.api.repository.PushSubscriptionRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Collects web push delivery outcomes per subscription id and applies them to {@code
+ * push_subscriptions} in one transaction per sweep. Ids rather than endpoints are recorded, so a
+ * user re-subscribing with the same endpoint gets a new row that earlier outcomes do not touch.
+ * Subscriptions the push service reports as gone (404/410) are deleted.
+ * Transient failures (429, 5xx, I/O errors) raise the subscription's failure count, and {@code
+ * max-failures} in a row disable it. A success resets the count. Disabled subscriptions are
+ * deleted once they have been disabled for {@code disabled-retention}.
+ */
+@Component
+public class PushDeliveryLedger {
+
+  private static final Logger logger = LoggerFactory.getLogger(PushDeliveryLedger.class);
+
+  private final PushSubscriptionRepository subscriptionRepository;
+  private final int maxFailures;
+  private final Duration disabledRetention;
+  private final Counter prunedGone;
+  private final Counter prunedDisabled;
+  private final Counter disabled;
+  private Set<Long> gone = new HashSet<>();
+  private Map<Long, Run> runs = new HashMap<>();
+
+  @Autowired
+  public PushDeliveryLedger(
+      PushSubscriptionRepository subscriptionRepository,
+      @Value("${webpush.ledger.max-failures:5}") int maxFailures,
+      @Value("${webpush.ledger.disabled-retention:P7D}") Duration disabledRetention,
+      MeterRegistry meterRegistry) {
+    this.subscriptionRepository = subscriptionRepository;
+    this.maxFailures = maxFailures;
+    this.disabledRetention = disabledRetention;
+    this.prunedGone = meterRegistry.counter("sbps.push.pruned", "reason", "gone");
+    this.prunedDisabled = meterRegistry.counter("sbps.push.pruned", "reason", "disabled");
+    this.disabled =
+        Counter.builder("sbps.push.disabled")
+            .description("Subscriptions disabled after repeated transient failures")
+            .register(meterRegistry);
+  }
+
+  public synchronized void recordGone(Long subscriptionId) {
+    gone.add(subscriptionId);
+  }
+
+  public synchronized void recordFailure(Long subscriptionId) {
+    runs.merge(subscriptionId, new Run(1, false), Run::then);
+  }
+
+  /**
+   * Kept only if the subscription had failures when the delivery was queued or has failures
+   * pending in this ledger; others have nothing to reset.
+   */
+  public synchronized void recordSuccess(Long subscriptionId, boolean hadFailures) {
+    if (hadFailures || runs.containsKey(subscriptionId)) {
+      runs.put(subscriptionId, new Run(0, true));
+    }
+  }
+
+  @Scheduled(
+      fixedDelayString = "${webpush.ledger.sweep-interval:PT1M}",
+      initialDelayString = "${webpush.ledger.sweep-interval:PT1M}")
+  @Transactional
+  public void sweep() {
+    Set<Long> goneIds;
+    Map<Long, Run> runIds;
+    synchronized (this) {
+      goneIds = gone;
+      runIds = runs;
+      gone = new HashSet<>();
+      runs = new HashMap<>();
+    }
+    Instant now = Instant.now();
+
+    if (!goneIds.isEmpty()) {
+      int deleted = subscriptionRepository.deleteAllByIdIn(goneIds);
+      prunedGone.increment(deleted);
+      logger.info("Removed {} push subscriptions reported gone by their push service", deleted);
+    }
+
+    runIds.keySet().removeAll(goneIds);
+    if (!runIds.isEmpty()) {
+      for (PushSubscription subscription : subscriptionRepository.findAllById(runIds.keySet())) {
+        apply(subscription, runIds.get(subscription.getId()), now);
+      }
+    }
+
+    int expired = subscriptionRepository.deleteAllDisabledBefore(now.minus(disabledRetention));
+    if (expired > 0) {
+      prunedDisabled.increment(expired);
+      logger.info("Removed {} push subscriptions disabled for over {}", expired, disabledRetention);
+    }
+  }
+
+  private void apply(PushSubscription subscription, Run run, Instant now) {
+    if (run.failures() == 0) {
+      subscription.setFailureCount(0);
+      return;
+    }
+    int count = run.restarted() ? run.failures() : subscription.getFailureCount() + run.failures();
+    subscription.setFailureCount(count);
+    subscription.setLastFailureAt(now);
+    if (count >= maxFailures && subscription.getDisabledAt() == null) {
+      subscription.setDisabledAt(now);
+      disabled.increment();
+      logger.warn(
+          "Disabled push subscription {} after {} consecutive failures",
+          subscription.getEndpoint(),
+          count);
+    }
+  }
+
+  /**
+   * Outcomes of one subscription within a sweep, in order: the failures since its last success,
+   * and whether a success ended the run stored in the database.
+   */
+  private record Run(int failures, boolean restarted) {
+    Run then(Run next) {
+      return next.restarted() ? next : new Run(failures + next.failures(), restarted);
+    }
+  }
+}
@@ -8,13 +8,34 @@ import com.yh.sbps.api.entity.PushSubscription;
 import com.yh.sbps.api.entity.User;
 import com.yh.sbps.api.repository.DeviceRepository;
 import com.yh.sbps.api.repository.PushSubscriptionRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.net.URI;
 import java.security.Security;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 import nl.martijndwars.webpush.Notification;
 import nl.martijndwars.webpush.PushService;
+import org.apache.http.HttpResponse;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,6 +44,17 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+/**
+ * Web push notifications. Deliveries run on a bounded pool of {@code webpush.delivery.threads}
+ * threads, one task per subscription, so callers return as soon as the sends are queued. When
+ * {@code webpush.delivery.queue-capacity} deliveries are already waiting, further ones are dropped
+ * and counted rather than queued. Outcomes go to {@link PushDeliveryLedger}, which prunes dead
+ * and repeatedly failing subscriptions.
+ *
+ * <p>Balancer actions are coalesced per user: the first one is pushed at once and opens a {@code
+ * webpush.balancer.aggregation-window}; actions arriving within it are sent as one summary when it
+ * closes, and the window stays open while actions keep coming.
+ */
 @Service
 public class PushNotificationService {
 
@@ -30,6 +62,15 @@ public class PushNotificationService {
   private final PushSubscriptionRepository subscriptionRepository;
   private final DeviceRepository deviceRepository;
   private final ObjectMapper objectMapper;
+  private final PushDeliveryLedger deliveryLedger;
+  private final Executor deliveryExecutor;
+  private final ExecutorService ownedDeliveryExecutor;
+  private final MeterRegistry meterRegistry;
+  private final Counter dropped;
+  private final Duration aggregationWindow;
+  private final ScheduledExecutorService aggregationScheduler;
+  private final Map<Long, PendingActions> pendingActions = new ConcurrentHashMap<>();
+  private final Counter coalesced;
 
   @Value("${webpush.vapid.public-key}")
   private String vapidPublicKey;
@@ -46,10 +87,57 @@ public class PushNotificationService {
   public PushNotificationService(
       PushSubscriptionRepository subscriptionRepository,
       DeviceRepository deviceRepository,
-      ObjectMapper objectMapper) {
+      ObjectMapper objectMapper,
+      PushDeliveryLedger deliveryLedger,
+      @Value("${webpush.delivery.threads:8}") int deliveryThreads,
+      @Value("${webpush.delivery.queue-capacity:1000}") int deliveryQueueCapacity,
+      @Value("${webpush.balancer.aggregation-window:PT10S}") Duration aggregationWindow,
+      MeterRegistry meterRegistry) {
+    this(
+        subscriptionRepository,
+        deviceRepository,
+        objectMapper,
+        deliveryLedger,
+        new ThreadPoolExecutor(
+            deliveryThreads,
+            deliveryThreads,
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(deliveryQueueCapacity),
+            Thread.ofPlatform().name("push-delivery-", 0).daemon().factory()),
+        aggregationWindow,
+        Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("push-aggregation").daemon().factory()),
+        meterRegistry);
+  }
+
+  PushNotificationService(
+      PushSubscriptionRepository subscriptionRepository,
+      DeviceRepository deviceRepository,
+      ObjectMapper objectMapper,
+      PushDeliveryLedger deliveryLedger,
+      Executor deliveryExecutor,
+      Duration aggregationWindow,
+      ScheduledExecutorService aggregationScheduler,
+      MeterRegistry meterRegistry) {
     this.subscriptionRepository = subscriptionRepository;
     this.deviceRepository = deviceRepository;
     this.objectMapper = objectMapper;
+    this.deliveryLedger = deliveryLedger;
+    this.deliveryExecutor = deliveryExecutor;
+    this.ownedDeliveryExecutor =
+        deliveryExecutor instanceof ExecutorService executorService ? executorService : null;
+    this.meterRegistry = meterRegistry;
+    this.dropped =
+        Counter.builder("sbps.push.dropped")
+            .description("Push deliveries refused because the delivery queue was full")
+            .register(meterRegistry);
+    this.aggregationWindow = aggregationWindow;
+    this.aggregationScheduler = aggregationScheduler;
+    this.coalesced =
+        Counter.builder("sbps.push.balancer.coalesced")
+            .description("Balancer actions folded into a summary notification")
+            .register(meterRegistry);
   }
 
   @PostConstruct
@@ -63,6 +151,16 @@ public class PushNotificationService {
     }
   }
 
+  /** Lets queued deliveries finish for a few seconds before the pool is stopped. */
+  @PreDestroy
+  public void shutdown() throws InterruptedException {
+    aggregationScheduler.shutdownNow();
+    if (ownedDeliveryExecutor != null) {
+      ownedDeliveryExecutor.shutdown();
+      ownedDeliveryExecutor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+  }
+
   @Transactional
   public void subscribe(User user, PushSubscriptionDto subDto) {
     logger.info("User {} subscribing to push notifications.", user.getUsername());
@@ -90,27 +188,71 @@ public class PushNotificationService {
       return;
     }
 
-    User user = deviceOpt.get().getUser();
-    String title = "Smart Power Balancer";
-    String body;
-    String url = "/dashboard";
-
-    if ("DISABLED_BY_BALANCER".equals(actionDto.getAction())) {
-      body =
-          String.format("Overload detected! Balancer turned off '%s'.", actionDto.getDeviceName());
-    } else if ("ENABLED_BY_BALANCER".equals(actionDto.getAction())) {
-      body = String.format("Power restored. Balancer turned on '%s'.", actionDto.getDeviceName());
-    } else {
+    if (!"DISABLED_BY_BALANCER".equals(actionDto.getAction())
+        && !"ENABLED_BY_BALANCER".equals(actionDto.getAction())) {
       logger.warn("Unknown balancer action: {}", actionDto.getAction());
       return;
     }
 
+    User user = deviceOpt.get().getUser();
+    if (aggregationWindow.isZero()) {
+      sendBalancerNotification(user, List.of(actionDto));
+      return;
+    }
+    AtomicBoolean opened = new AtomicBoolean();
+    pendingActions.compute(
+        user.getId(),
+        (userId, pending) -> {
+          if (pending == null) {
+            opened.set(true);
+            return new PendingActions(user);
+          }
+          pending.add(actionDto);
+          return pending;
+        });
+    if (opened.get()) {
+      sendBalancerNotification(user, List.of(actionDto));
+      scheduleFlush(user.getId());
+    } else {
+      coalesced.increment();
+    }
+  }
+
+  private void scheduleFlush(Long userId) {
+    aggregationScheduler.schedule(
+        () -> flushBalancerActions(userId), aggregationWindow.toNanos(), TimeUnit.NANOSECONDS);
+  }
+
+  /** Sends what gathered during the window and keeps it open, or closes it if nothing did. */
+  private void flushBalancerActions(Long userId) {
+    List<BalancerActionDto> actions = new ArrayList<>();
+    PendingActions pending =
+        pendingActions.computeIfPresent(
+            userId,
+            (id, window) -> {
+              if (window.actions.isEmpty()) {
+                return null;
+              }
+              actions.addAll(window.actions.values());
+              window.actions.clear();
+              return window;
+            });
+    if (pending != null) {
+      try {
+        sendBalancerNotification(pending.user, actions);
+      } finally {
+        scheduleFlush(userId);
+      }
+    }
+  }
+
+  private void sendBalancerNotification(User user, List<BalancerActionDto> actions) {
     try {
       Map<String, String> payloadMap =
           Map.of(
-              "title", title,
-              "body", body,
-              "url", url);
+              "title", "Smart Power Balancer",
+              "body", balancerMessage(actions),
+              "url", "/dashboard");
       String payload = objectMapper.writeValueAsString(payloadMap);
 
       sendNotificationToUser(user, payload);
@@ -119,6 +261,42 @@ public class PushNotificationService {
     }
   }
 
+  static String balancerMessage(List<BalancerActionDto> actions) {
+    if (actions.size() == 1) {
+      BalancerActionDto action = actions.getFirst();
+      return "DISABLED_BY_BALANCER".equals(action.getAction())
+          ? String.format("Overload detected! Balancer turned off '%s'.", action.getDeviceName())
+          : String.format("Power restored. Balancer turned on '%s'.", action.getDeviceName());
+    }
+    List<String> off = deviceNames(actions, "DISABLED_BY_BALANCER");
+    List<String> on = deviceNames(actions, "ENABLED_BY_BALANCER");
+    if (on.isEmpty()) {
+      return String.format(
+          "Overload detected! Balancer turned off %s: %s.", devices(off), names(off));
+    }
+    if (off.isEmpty()) {
+      return String.format("Power restored. Balancer turned on %s: %s.", devices(on), names(on));
+    }
+    return String.format(
+        "Balancer turned off %s (%s) and turned on %s (%s).",
+        devices(off), names(off), devices(on), names(on));
+  }
+
+  private static List<String> deviceNames(List<BalancerActionDto> actions, String action) {
+    return actions.stream()
+        .filter(a -> action.equals(a.getAction()))
+        .map(BalancerActionDto::getDeviceName)
+        .toList();
+  }
+
+  private static String devices(List<String> names) {
+    return names.size() == 1 ? "1 device" : names.size() + " devices";
+  }
+
+  private static String names(List<String> names) {
+    return names.stream().map(name -> "'" + name + "'").collect(Collectors.joining(", "));
+  }
+
   @Transactional(readOnly = true)
   public void sendNotificationToUser(User user, String payload) {
     if (pushService == null) {
@@ -126,31 +304,119 @@ public class PushNotificationService {
       return;
     }
 
-    List<PushSubscription> subscriptions = subscriptionRepository.findAllByUser(user);
+    List<PushSubscription> subscriptions =
+        subscriptionRepository.findAllByUserAndDisabledAtIsNull(user);
     if (subscriptions.isEmpty()) {
       logger.debug("User {} has no push subscriptions.", user.getUsername());
       return;
     }
 
     logger.info(
-        "Sending push notification to {} subscriptions for user {}",
+        "Queueing push notification to {} subscriptions for user {}",
         subscriptions.size(),
         user.getUsername());
 
     for (PushSubscription sub : subscriptions) {
+      Long subscriptionId = sub.getId();
+      String endpoint = sub.getEndpoint();
+      String p256dhKey = sub.getP256dhKey();
+      String authKey = sub.getAuthKey();
+      boolean failing = sub.getFailureCount() > 0;
       try {
-        Notification notification =
-            new Notification(sub.getEndpoint(), sub.getP256dhKey(), sub.getAuthKey(), payload);
-        pushService.send(notification);
-      } catch (Exception e) {
-        logger.error(
-            "Failed to send push notification to {}: {}", sub.getEndpoint(), e.getMessage());
-        // TODO
-        // if (e instanceof OrgApacheHttpclientStatusLineException &&
-        // ((OrgApacheHttpclientStatusLineException) e).getStatusCode() == 410) {
-        //   subscriptionRepository.delete(sub);
-        // }
+        deliveryExecutor.execute(
+            () -> deliver(subscriptionId, endpoint, p256dhKey, authKey, payload, failing));
+      } catch (RejectedExecutionException e) {
+        dropped.increment();
+        logger.warn("Push delivery queue is full, dropping notification to {}", endpoint);
       }
     }
   }
+
+  /**
+   * Sends one notification, records its latency per push service host and outcome, and reports
+   * the outcome to the delivery ledger.
+   */
+  private void deliver(
+      Long subscriptionId,
+      String endpoint,
+      String p256dhKey,
+      String authKey,
+      String payload,
+      boolean failing) {
+    Timer.Sample sample = Timer.start(meterRegistry);
+    String outcome;
+    try {
+      Notification notification = new Notification(endpoint, p256dhKey, authKey, payload);
+      HttpResponse response = pushService.send(notification);
+      int status = response.getStatusLine().getStatusCode();
+      if (status >= 200 && status < 300) {
+        outcome = "success";
+        deliveryLedger.recordSuccess(subscriptionId, failing);
+      } else if (status == 404 || status == 410) {
+        outcome = "gone";
+        logger.info("Push subscription {} expired with status {}", endpoint, status);
+        deliveryLedger.recordGone(subscriptionId);
+      } else {
+        outcome = "rejected";
+        logger.warn("Push service rejected notification to {} with status {}", endpoint, status);
+        if (status == 429 || status >= 500) {
+          deliveryLedger.recordFailure(subscriptionId);
+        }
+      }
+    } catch (Exception e) {
+      outcome = "error";
+      logger.error("Failed to send push notification to {}: {}", endpoint, e.getMessage());
+      deliveryLedger.recordFailure(subscriptionId);
+    }
+    sample.stop(
+        Timer.builder("sbps.push.send")
+            .description("Web push deliveries by push service host")
+            .tag("host", host(endpoint))
+            .tag("outcome", outcome)
+            .register(meterRegistry));
+  }
+
+  /**
+   * Push service of an endpoint as a fixed metric tag value; endpoints come from clients, so any
+   * host outside the known services is reported as {@code other}.
+   */
+  static String host(String endpoint) {
+    String host;
+    try {
+      host = URI.create(endpoint).getHost();
+    } catch (IllegalArgumentException e) {
+      return "other";
+    }
+    if (host == null) {
+      return "other";
+    }
+    host = host.toLowerCase(Locale.ROOT);
+    if (host.equals("fcm.googleapis.com") || host.equals("android.googleapis.com")) {
+      return "fcm";
+    } else if (host.endsWith(".push.services.mozilla.com")) {
+      return "mozilla";
+    } else if (host.endsWith(".push.apple.com")) {
+      return "apple";
+    } else if (host.endsWith(".notify.windows.com")) {
+      return "wns";
+    }
+    return "other";
+  }
+
+  /** Balancer actions gathered in a user's open window; only a device's latest action is kept. */
+  private static final class PendingActions {
+
+    private final User user;
+    private final Map<Long, BalancerActionDto> actions = new LinkedHashMap<>();
+
+    PendingActions(User user) {
+      this.user = user;
+    }
+
+    void add(BalancerActionDto action) {
+      // Re-inserting moves the device to the end, so the summary follows the latest order
+      actions.remove(action.getDeviceId());
+      actions.put(action.getDeviceId(), action);
+    }
+  }
 }
@@ -0,0 +1,324 @@
+package com.yh.sbps.api.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+/**
+ * Delivers {@code /topic/status/{username}} messages to STOMP subscribers without going through
+ * the message broker. Subscriptions are indexed by username, so a publish touches only that user's
+ * sessions. Every subscription has a bounded queue: a newer update for the same key (device)
+ * replaces one still waiting, and when the queue is full the oldest update is dropped, so a slow
+ * client never holds back others. Keyed payloads must therefore carry the full state for their
+ * key. Queues are drained by a fixed number of shard threads; a session always uses the same
+ * shard, which keeps its updates in order.
+ */
+@Component
+public class StatusTopicFanout {
+
+  public static final String DESTINATION_PREFIX = "/topic/status/";
+
+  private static final Logger logger = LoggerFactory.getLogger(StatusTopicFanout.class);
+
+  private final MessageChannel clientOutboundChannel;
+  private final ObjectMapper objectMapper;
+  private final List<Executor> shards;
+  private final List<ExecutorService> ownedShards = new ArrayList<>();
+  private final int queueCapacity;
+  private final Map<String, Map<String, Subscriber>> subscribersByUsername =
+      new ConcurrentHashMap<>();
+  private final Map<String, Map<String, Subscriber>> subscribersBySession =
+      new ConcurrentHashMap<>();
+  private final Counter sent;
+  private final Counter conflated;
+  private final Counter droppedOverflow;
+  private final Counter droppedSendFailed;
+  private final DistributionSummary payloadBytes;
+
+  @Autowired
+  public StatusTopicFanout(
+      @Qualifier("clientOutboundChannel") MessageChannel clientOutboundChannel,
+      ObjectMapper objectMapper,
+      @Value("${websocket.fanout.shards:4}") int shardCount,
+      @Value("${websocket.fanout.queue-capacity:64}") int queueCapacity,
+      MeterRegistry meterRegistry) {
+    this(clientOutboundChannel, objectMapper, List.of(), queueCapacity, meterRegistry);
+    for (int i = 0; i < shardCount; i++) {
+      ExecutorService shard =
+          Executors.newSingleThreadExecutor(
+              Thread.ofPlatform().name("status-fanout-" + i).daemon().factory());
+      ownedShards.add(shard);
+      shards.add(shard);
+    }
+  }
+
+  StatusTopicFanout(
+      MessageChannel clientOutboundChannel,
+      ObjectMapper objectMapper,
+      List<Executor> shards,
+      int queueCapacity,
+      MeterRegistry meterRegistry) {
+    this.clientOutboundChannel = clientOutboundChannel;
+    this.objectMapper = objectMapper;
+    this.shards = new ArrayList<>(shards);
+    this.queueCapacity = queueCapacity;
+    this.sent = meterRegistry.counter("sbps.ws.fanout.sent");
+    this.conflated =
+        Counter.builder("sbps.ws.fanout.conflated")
+            .description("Queued updates replaced by a newer one for the same device")
+            .register(meterRegistry);
+    this.droppedOverflow = meterRegistry.counter("sbps.ws.fanout.dropped", "reason", "overflow");
+    this.droppedSendFailed =
+        meterRegistry.counter("sbps.ws.fanout.dropped", "reason", "send_failed");
+    this.payloadBytes =
+        DistributionSummary.builder("sbps.ws.fanout.payload")
+            .description("Serialized size of a published update, shared by all its subscribers")
+            .baseUnit("bytes")
+            .register(meterRegistry);
+    Gauge.builder("sbps.ws.fanout.subscriptions", this, StatusTopicFanout::subscriptionCount)
+        .register(meterRegistry);
+    Gauge.builder("sbps.ws.fanout.queue_depth", this, StatusTopicFanout::queueDepth)
+        .description("Updates waiting in all subscription queues")
+        .register(meterRegistry);
+  }
+
+  /**
+   * Queues {@code payload} for every subscription of the user. The payload is serialized once and
+   * the same bytes are sent to every session; they must not be modified once queued. A later
+   * payload with the same {@code key} replaces it while it is still queued, so a key means "this
+   * payload supersedes every earlier one with the key": pass one only with full snapshots, and a
+   * fresh key for partial updates that must all arrive.
+   */
+  public void publish(String username, Object key, Object payload) {
+    Map<String, Subscriber> subscribers = subscribersByUsername.get(username);
+    if (subscribers == null || subscribers.isEmpty()) {
+      return;
+    }
+    byte[] body;
+    try {
+      body = objectMapper.writeValueAsBytes(payload);
+    } catch (JsonProcessingException e) {
+      logger.error("Failed to serialize status update for {}", username, e);
+      return;
+    }
+    payloadBytes.record(body.length);
+    for (Subscriber subscriber : subscribers.values()) {
+      if (subscriber.offer(key, body)) {
+        shards.get(subscriber.shard()).execute(subscriber::drain);
+      }
+    }
+  }
+
+  @EventListener
+  public void onSubscribe(SessionSubscribeEvent event) {
+    SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+    String destination = accessor.getDestination();
+    String sessionId = accessor.getSessionId();
+    String subscriptionId = accessor.getSubscriptionId();
+    if (destination == null
+        || !destination.startsWith(DESTINATION_PREFIX)
+        || sessionId == null
+        || subscriptionId == null) {
+      return;
+    }
+    String username = destination.substring(DESTINATION_PREFIX.length());
+    Subscriber subscriber =
+        new Subscriber(
+            username,
+            destination,
+            sessionId,
+            subscriptionId,
+            Math.floorMod(sessionId.hashCode(), shards.size()));
+    // compute() rather than computeIfAbsent().put(), which could race with remove() below
+    subscribersByUsername.compute(
+        username,
+        (u, subscribers) -> {
+          Map<String, Subscriber> updated =
+              subscribers != null ? subscribers : new ConcurrentHashMap<>();
+          updated.put(subscriber.key(), subscriber);
+          return updated;
+        });
+    subscribersBySession
+        .computeIfAbsent(sessionId, s -> new ConcurrentHashMap<>())
+        .put(subscriber.key(), subscriber);
+  }
+
+  @EventListener
+  public void onUnsubscribe(SessionUnsubscribeEvent event) {
+    SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.wrap(event.getMessage());
+    String sessionId = accessor.getSessionId();
+    Map<String, Subscriber> sessionSubscribers =
+        sessionId != null ? subscribersBySession.get(sessionId) : null;
+    if (sessionSubscribers != null) {
+      remove(sessionSubscribers.remove(sessionId + "/" + accessor.getSubscriptionId()));
+    }
+  }
+
+  @EventListener
+  public void onDisconnect(SessionDisconnectEvent event) {
+    Map<String, Subscriber> sessionSubscribers = subscribersBySession.remove(event.getSessionId());
+    if (sessionSubscribers != null) {
+      sessionSubscribers.values().forEach(this::remove);
+    }
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    ownedShards.forEach(ExecutorService::shutdownNow);
+  }
+
+  private void remove(Subscriber subscriber) {
+    if (subscriber == null) {
+      return;
+    }
+    subscriber.close();
+    subscribersByUsername.computeIfPresent(
+        subscriber.username(),
+        (username, subscribers) -> {
+          subscribers.remove(subscriber.key());
+          return subscribers.isEmpty() ? null : subscribers;
+        });
+  }
+
+  private double subscriptionCount() {
+    return subscribersBySession.values().stream().mapToInt(Map::size).sum();
+  }
+
+  private double queueDepth() {
+    return subscribersBySession.values().stream()
+        .flatMap(subscribers -> subscribers.values().stream())
+        .mapToInt(Subscriber::depth)
+        .sum();
+  }
+
+  private final class Subscriber {
+
+    private final String username;
+    private final String destination;
+    private final String sessionId;
+    private final String subscriptionId;
+    private final int shard;
+    // Insertion-ordered; replacing the value of an existing key keeps its position
+    private final LinkedHashMap<Object, byte[]> pending = new LinkedHashMap<>();
+    private boolean scheduled;
+    private boolean closed;
+
+    Subscriber(
+        String username, String destination, String sessionId, String subscriptionId, int shard) {
+      this.username = username;
+      this.destination = destination;
+      this.sessionId = sessionId;
+      this.subscriptionId = subscriptionId;
+      this.shard = shard;
+    }
+
+    String key() {
+      return sessionId + "/" + subscriptionId;
+    }
+
+    String username() {
+      return username;
+    }
+
+    int shard() {
+      return shard;
+    }
+
+    /** Queues the body and returns true if the caller must schedule a drain. */
+    synchronized boolean offer(Object key, byte[] body) {
+      if (closed) {
+        return false;
+      }
+      if (pending.put(key, body) != null) {
+        conflated.increment();
+      } else if (pending.size() > queueCapacity) {
+        Iterator<Object> oldest = pending.keySet().iterator();
+        oldest.next();
+        oldest.remove();
+        droppedOverflow.increment();
+      }
+      if (scheduled) {
+        return false;
+      }
+      scheduled = true;
+      return true;
+    }
+
+    synchronized int depth() {
+      return pending.size();
+    }
+
+    synchronized void close() {
+      closed = true;
+      pending.clear();
+    }
+
+    /**
+     * Sends up to one queue's worth of updates, then yields the shard thread to other sessions
+     * and reschedules itself if more arrived meanwhile.
+     */
+    void drain() {
+      for (int i = 0; i < queueCapacity; i++) {
+        byte[] body;
+        synchronized (this) {
+          Iterator<byte[]> next = pending.values().iterator();
+          if (closed || !next.hasNext()) {
+            scheduled = false;
+            return;
+          }
+          body = next.next();
+          next.remove();
+        }
+        send(body);
+      }
+      shards.get(shard).execute(this::drain);
+    }
+
+    private void send(byte[] body) {
+      SimpMessageHeaderAccessor accessor =
+          SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+      accessor.setSessionId(sessionId);
+      accessor.setSubscriptionId(subscriptionId);
+      accessor.setDestination(destination);
+      accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+      accessor.setLeaveMutable(true);
+      Message<byte[]> message = MessageBuilder.createMessage(body, accessor.getMessageHeaders());
+      try {
+        clientOutboundChannel.send(message);
+        sent.increment();
+      } catch (RuntimeException e) {
+        droppedSendFailed.increment();
+        logger.debug("Dropped status update for session {}: {}", sessionId, e.getMessage());
+      }
+    }
+  }
+}
@@ -1,17 +1,16 @@
 package com.yh.sbps.api.service;
 
 import com.yh.sbps.api.dto.SystemSettingsDto;
-import com.yh.sbps.api.entity.Device;
+import com.yh.sbps.api.dto.SystemStateDeltaDto;
 import com.yh.sbps.api.entity.DeviceType;
 import com.yh.sbps.api.entity.SystemSettings;
 import com.yh.sbps.api.entity.User;
-import com.yh.sbps.api.integration.DeviceServiceWS;
 import com.yh.sbps.api.repository.SystemSettingsRepository;
-import java.util.Optional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 @Service
 public class SystemSettingsService {
@@ -24,16 +23,19 @@ public class SystemSettingsService {
   private static final Logger logger = LoggerFactory.getLogger(SystemSettingsService.class);
   private final SystemSettingsRepository systemSettingsRepository;
   private final DeviceService deviceService;
-  private final DeviceServiceWS deviceServiceWS;
+  private final SystemStateCache systemStateCache;
+  private final DeviceNotificationOutbox deviceNotificationOutbox;
 
   @Autowired
   public SystemSettingsService(
       SystemSettingsRepository systemSettingsRepository,
       DeviceService deviceService,
-      DeviceServiceWS deviceServiceWS) {
+      SystemStateCache systemStateCache,
+      DeviceNotificationOutbox deviceNotificationOutbox) {
     this.systemSettingsRepository = systemSettingsRepository;
     this.deviceService = deviceService;
-    this.deviceServiceWS = deviceServiceWS;
+    this.systemStateCache = systemStateCache;
+    this.deviceNotificationOutbox = deviceNotificationOutbox;
   }
 
   public SystemSettingsDto getSettings(User user) {
@@ -41,14 +43,17 @@ public class SystemSettingsService {
         systemSettingsRepository.findByUser(user).orElseGet(() -> createDefaultSettings(user)));
   }
 
+  @Transactional
   public SystemSettingsDto updateSettings(User user, SystemSettingsDto newSettings) {
     SystemSettings existingSettings =
         systemSettingsRepository.findByUser(user).orElseGet(() -> createDefaultSettings(user));
     SystemSettingsDto.toEntity(existingSettings, newSettings);
 
     SystemSettings save = systemSettingsRepository.save(existingSettings);
-    notifyDeviceServiceOfSettingsUpdate(user);
-    return SystemSettingsDto.fromEntity(save);
+    long sequence = systemStateCache.invalidate(user.getId());
+    SystemSettingsDto savedDto = SystemSettingsDto.fromEntity(save);
+    notifyDeviceServiceOfSettingsUpdate(user, sequence, savedDto);
+    return savedDto;
   }
 
   private SystemSettings createDefaultSettings(User user) {
@@ -59,23 +64,22 @@ public class SystemSettingsService {
             DEFAULT_OVERLOAD_COOLDOWN_SECONDS,
             DEFAULT_POWER_SAVE_LIMIT_WATTS,
             user);
-    return systemSettingsRepository.save(defaultSettings);
+    SystemSettings saved = systemSettingsRepository.save(defaultSettings);
+    // No delta here: the skipped sequence number makes the device service resync the full state
+    systemStateCache.invalidate(user.getId());
+    return saved;
   }
 
-  private void notifyDeviceServiceOfSettingsUpdate(User user) {
-    try {
-      Optional<Device> monitorOpt =
-          deviceService.getAllDevices(user).stream()
-              .filter(d -> d.getDeviceType() == DeviceType.POWER_MONITOR)
-              .findFirst();
-
-      monitorOpt.ifPresent(device -> deviceServiceWS.notifyStateRefresh(device.getMqttPrefix()));
-    } catch (Exception e) {
-      // don't fail the main operation
-      logger.error(
-          "Failed to notify device service of settings update for user {}: {}",
-          user.getId(),
-          e.getMessage());
-    }
+  private void notifyDeviceServiceOfSettingsUpdate(
+      User user, long sequence, SystemSettingsDto settings) {
+    // Recorded in the settings transaction; delivery failures are retried by the outbox
+    deviceService.getAllDevices(user).stream()
+        .filter(d -> d.getDeviceType() == DeviceType.POWER_MONITOR)
+        .findFirst()
+        .ifPresent(
+            device ->
+                deviceNotificationOutbox.stateDelta(
+                    SystemStateDeltaDto.settingsChanged(
+                        device.getMqttPrefix(), systemStateCache.getEpoch(), sequence, settings)));
   }
 }
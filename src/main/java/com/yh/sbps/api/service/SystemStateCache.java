@@ -0,0 +1,125 @@
+package com.yh.sbps.api.service;
+
+import com.yh.sbps.api.dto.SystemStateDto;
+import com.yh.sbps.api.entity.User;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Per-user {@link SystemStateDto} snapshots served to the balancer. A snapshot is rebuilt only
+ * after a change registered through {@link #invalidate(Long)} commits and bumps the user's
+ * version, i.e. when the user's devices or settings change. Each snapshot carries an ETag made of
+ * the process epoch, user id and version, plus the highest delta sequence number it includes.
+ */
+@Component
+public class SystemStateCache {
+
+  private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+  // Bumped on every committed change, so out-of-order commits still yield distinct ETags
+  private final Map<Long, AtomicLong> versions = new ConcurrentHashMap<>();
+  // Highest committed delta sequence; reserved runs ahead of it until the transaction commits
+  private final Map<Long, AtomicLong> generations = new ConcurrentHashMap<>();
+  private final Map<Long, AtomicLong> reserved = new ConcurrentHashMap<>();
+  private final Map<Long, Snapshot> snapshots = new ConcurrentHashMap<>();
+  private final Map<String, User> usersByMqttPrefix = new ConcurrentHashMap<>();
+  private final Counter hits;
+  private final Counter misses;
+
+  @Autowired
+  public SystemStateCache(MeterRegistry meterRegistry) {
+    this.hits = meterRegistry.counter("sbps.system_state.cache", "result", "hit");
+    this.misses = meterRegistry.counter("sbps.system_state.cache", "result", "miss");
+    Gauge.builder("sbps.system_state.cache.size", snapshots, Map::size).register(meterRegistry);
+  }
+
+  /** Returns the owner of the device with this prefix, resolving and remembering it on a miss. */
+  public User ownerForMqttPrefix(String mqttPrefix, Supplier<User> resolver) {
+    User owner = usersByMqttPrefix.get(mqttPrefix);
+    if (owner == null) {
+      owner = resolver.get();
+      usersByMqttPrefix.put(mqttPrefix, owner);
+    }
+    return owner;
+  }
+
+  /**
+   * Returns the current snapshot for the user, building it with {@code loader} if the user changed
+   * since the last build. A build that races with an invalidation is returned to its caller but
+   * superseded on the next read.
+   */
+  public Snapshot get(Long userId, Supplier<SystemStateDto> loader) {
+    // Sequence before version: a snapshot may under-report its sequence, never over-report it
+    long generation = counter(generations, userId).get();
+    long version = counter(versions, userId).get();
+    Snapshot cached = snapshots.get(userId);
+    if (cached != null && cached.version() == version) {
+      hits.increment();
+      return cached;
+    }
+    misses.increment();
+    SystemStateDto state = loader.get();
+    Snapshot fresh =
+        new Snapshot(
+            new SystemStateDto(state.getSystemSettings(), List.copyOf(state.getDevices())),
+            epoch,
+            version,
+            generation,
+            "\"" + epoch + "-" + userId + "-" + version + "\"");
+    snapshots.merge(userId, fresh, (old, built) -> built.version() >= old.version() ? built : old);
+    return fresh;
+  }
+
+  /**
+   * Reserves the next sequence number for the delta describing a change to the user's devices or
+   * settings and returns it. Inside a transaction the version is bumped and the snapshot dropped
+   * only after commit, so readers never pair a new ETag with pre-commit data; a rolled-back change
+   * leaves a gap in the sequence.
+   */
+  public long invalidate(Long userId) {
+    if (userId == null) {
+      return 0;
+    }
+    long generation = counter(reserved, userId).incrementAndGet();
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+              publish(userId, generation);
+            }
+          });
+    } else {
+      publish(userId, generation);
+    }
+    return generation;
+  }
+
+  private void publish(Long userId, long generation) {
+    counter(generations, userId).accumulateAndGet(generation, Math::max);
+    counter(versions, userId).incrementAndGet();
+    snapshots.remove(userId);
+    usersByMqttPrefix.values().removeIf(user -> userId.equals(user.getId()));
+  }
+
+  /** Identifies this process; versions and sequences restart from zero when it changes. */
+  public String getEpoch() {
+    return epoch;
+  }
+
+  private static AtomicLong counter(Map<Long, AtomicLong> counters, Long userId) {
+    return counters.computeIfAbsent(userId, id -> new AtomicLong());
+  }
+
+  public record Snapshot(
+      SystemStateDto state, String epoch, long version, long generation, String etag) {}
+}
@@ -0,0 +1,63 @@
+package com.yh.sbps.api.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.yh.sbps.api.entity.User;
+import com.yh.sbps.api.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.stereotype.Service;
+
+/**
+ * TTL and size bounded cache of {@link User} principals used by the JWT filter, so authenticated
+ * requests do not hit the database on every call. Anything that changes a user must call {@link
+ * #invalidate(String)}.
+ */
+@Service
+public class UserPrincipalCache {
+
+  private static final Logger logger = LoggerFactory.getLogger(UserPrincipalCache.class);
+  private final UserRepository userRepository;
+  private final Cache<String, User> principals;
+
+  @Autowired
+  public UserPrincipalCache(
+      UserRepository userRepository,
+      @Value("${auth.principal-cache.ttl:PT5M}") Duration ttl,
+      @Value("${auth.principal-cache.max-size:1000}") long maxSize,
+      MeterRegistry meterRegistry) {
+    this.userRepository = userRepository;
+    this.principals =
+        Caffeine.newBuilder().expireAfterWrite(ttl).maximumSize(maxSize).recordStats().build();
+    CaffeineCacheMetrics.monitor(meterRegistry, principals, "auth.principals");
+  }
+
+  public User loadUserByUsername(String username) throws UsernameNotFoundException {
+    User cached = principals.getIfPresent(username);
+    if (cached != null) {
+      return cached;
+    }
+    User user =
+        userRepository
+            .findByUsername(username)
+            .orElseThrow(() -> new UsernameNotFoundException("User not found"));
+    principals.put(username, user);
+    return user;
+  }
+
+  public void invalidate(String username) {
+    if (username == null) return;
+    logger.debug("Invalidating cached principal for user {}", username);
+    principals.invalidate(username);
+  }
+
+  public void invalidateAll() {
+    principals.invalidateAll();
+  }
+}
@@ -1,22 +1,170 @@
 package com.yh.sbps.api.service;
 
+import com.yh.sbps.api.dto.DeviceStatusUpdateDto;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+/**
+ * Broadcasts device status updates to a user's dashboards. Updates are conflated per device: within
+ * one {@code flush-interval} only the latest status of each device is sent, so a device reporting
+ * several times a second costs one message per interval. Updates may be partial, so each one is
+ * merged into the device's last known status, as {@link DeviceStatusService#recordUpdate} does,
+ * and that merged status is what gets sent. A device going online or offline is flushed at once,
+ * together with anything else pending for the user. A zero interval sends every update
+ * immediately.
+ */
 @Service
 public class WebSocketService {
 
-  private final SimpMessagingTemplate messagingTemplate;
+  private final StatusTopicFanout statusTopicFanout;
+  private final Duration flushInterval;
+  private final ScheduledExecutorService flushScheduler;
+  private final Map<String, UserBatch> batches = new ConcurrentHashMap<>();
+  private final Counter conflated;
+  private final Counter intervalFlushes;
+  private final Counter transitionFlushes;
 
   @Autowired
-  public WebSocketService(SimpMessagingTemplate messagingTemplate) {
-    this.messagingTemplate = messagingTemplate;
+  public WebSocketService(
+      StatusTopicFanout statusTopicFanout,
+      @Value("${websocket.status.flush-interval:PT0.25S}") Duration flushInterval,
+      MeterRegistry meterRegistry) {
+    this(
+        statusTopicFanout,
+        flushInterval,
+        Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("status-conflater").daemon().factory()),
+        meterRegistry);
+  }
+
+  WebSocketService(
+      StatusTopicFanout statusTopicFanout,
+      Duration flushInterval,
+      ScheduledExecutorService flushScheduler,
+      MeterRegistry meterRegistry) {
+    this.statusTopicFanout = statusTopicFanout;
+    this.flushInterval = flushInterval;
+    this.flushScheduler = flushScheduler;
+    this.conflated =
+        Counter.builder("sbps.ws.broadcast.conflated")
+            .description("Status updates replaced by a newer one before being flushed")
+            .register(meterRegistry);
+    this.intervalFlushes =
+        meterRegistry.counter("sbps.ws.broadcast.flushes", "trigger", "interval");
+    this.transitionFlushes =
+        meterRegistry.counter("sbps.ws.broadcast.flushes", "trigger", "transition");
   }
 
   public void broadcastDeviceUpdate(String username, Object deviceStatus) {
     if (username == null) return;
-    String destination = "/topic/status/" + username;
-    messagingTemplate.convertAndSend(destination, deviceStatus);
+    if (!(deviceStatus instanceof DeviceStatusUpdateDto update) || update.getDeviceId() == null) {
+      statusTopicFanout.publish(username, new Object(), deviceStatus);
+      return;
+    }
+    batches.computeIfAbsent(username, UserBatch::new).add(update);
+  }
+
+  /** Broadcasts several updates of one user, taking the user's batch lock once. */
+  public void broadcastDeviceUpdates(String username, List<DeviceStatusUpdateDto> updates) {
+    if (username == null) return;
+    batches.computeIfAbsent(username, UserBatch::new).addAll(updates);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    flushScheduler.shutdownNow();
+  }
+
+  /** Fills the fields a partial update leaves null from the device's previous status. */
+  private static DeviceStatusUpdateDto merge(
+      DeviceStatusUpdateDto previous, DeviceStatusUpdateDto update) {
+    if (previous == null
+        || (update.getIsOnline() != null || previous.getIsOnline() == null)
+            && (update.getStatusJson() != null || previous.getStatusJson() == null)) {
+      return update;
+    }
+    return new DeviceStatusUpdateDto(
+        update.getDeviceId(),
+        update.getUsername(),
+        update.getIsOnline() != null ? update.getIsOnline() : previous.getIsOnline(),
+        update.getStatusJson() != null ? update.getStatusJson() : previous.getStatusJson());
+  }
+
+  private final class UserBatch {
+
+    private final String username;
+    // Insertion-ordered; replacing the status of a pending device keeps its position
+    private final LinkedHashMap<Long, DeviceStatusUpdateDto> pending = new LinkedHashMap<>();
+    // Last known status per device, merged from partial updates
+    private final Map<Long, DeviceStatusUpdateDto> latest = new HashMap<>();
+    private boolean scheduled;
+
+    UserBatch(String username) {
+      this.username = username;
+    }
+
+    synchronized void addAll(List<DeviceStatusUpdateDto> updates) {
+      for (DeviceStatusUpdateDto update : updates) {
+        if (update.getDeviceId() != null) {
+          add(update);
+        } else {
+          statusTopicFanout.publish(username, new Object(), update);
+        }
+      }
+    }
+
+    synchronized void add(DeviceStatusUpdateDto update) {
+      Long deviceId = update.getDeviceId();
+      DeviceStatusUpdateDto previous = latest.get(deviceId);
+      DeviceStatusUpdateDto merged = merge(previous, update);
+      latest.put(deviceId, merged);
+      if (pending.put(deviceId, merged) != null) {
+        conflated.increment();
+      }
+      Boolean previousOnline = previous != null ? previous.getIsOnline() : null;
+      if (flushInterval.isZero()) {
+        flush();
+      } else if (previousOnline != null
+          && update.getIsOnline() != null
+          && !Objects.equals(previousOnline, update.getIsOnline())) {
+        transitionFlushes.increment();
+        flush();
+      } else if (!scheduled) {
+        scheduled = true;
+        flushScheduler.schedule(
+            this::flushScheduled, flushInterval.toNanos(), TimeUnit.NANOSECONDS);
+      }
+    }
+
+    private synchronized void flushScheduled() {
+      scheduled = false;
+      if (!pending.isEmpty()) {
+        intervalFlushes.increment();
+        flush();
+      }
+    }
+
+    /**
+     * Hands pending updates to the fan-out in order; publishing only enqueues, so it is cheap. Each
+     * carries the device's full merged status, so the fan-out may conflate them by device id.
+     */
+    private void flush() {
+      pending.forEach((deviceId, update) -> statusTopicFanout.publish(username, deviceId, update));
+      pending.clear();
+    }
   }
 }
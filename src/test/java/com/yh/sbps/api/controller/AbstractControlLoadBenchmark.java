@@ -0,0 +1,133 @@
+package com.yh.sbps.api.controller;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.yh.sbps.api.entity.Device;
+import com.yh.sbps.api.entity.DeviceType;
+import com.yh.sbps.api.entity.Role;
+import com.yh.sbps.api.entity.User;
+import com.yh.sbps.api.repository.DeviceRepository;
+import com.yh.sbps.api.repository.UserRepository;
+import com.yh.sbps.api.service.JwtService;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+
+/**
+ * Drives {@code /api/devices}, which still runs a blocking JDBC query on the request thread, with
+ * many more concurrent clients than database connections, and prints throughput and latency
+ * percentiles. Requests queue for the connection pool instead of failing, so the failure rate must
+ * stay near zero. Subclasses pick the thread model; run with {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+@ActiveProfiles("test")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+abstract class AbstractControlLoadBenchmark {
+
+  private static final int CONCURRENCY = 200;
+  private static final int REQUESTS = 2_000;
+  private static final double MAX_FAILURE_RATE = 0.001;
+
+  @LocalServerPort private int port;
+  @Autowired private UserRepository userRepository;
+  @Autowired private DeviceRepository deviceRepository;
+  @Autowired private JwtService jwtService;
+  private String token;
+
+  protected abstract String mode();
+
+  @BeforeEach
+  void setUp() {
+    User user =
+        userRepository
+            .findByUsername("load-user")
+            .orElseGet(
+                () ->
+                    userRepository.save(
+                        new User("load@example.com", "password", "load-user", Role.USER)));
+    if (deviceRepository.findAllByUser(user).isEmpty()) {
+      Device device = new Device();
+      device.setName("Load Plug");
+      device.setMqttPrefix("load/plug");
+      device.setDeviceType(DeviceType.SWITCHABLE_APPLIANCE);
+      device.setUser(user);
+      deviceRepository.save(device);
+    }
+    token = jwtService.generateToken(user);
+  }
+
+  @Test
+  void deviceList_UnderConcurrentLoad() throws Exception {
+    report("/api/devices", run("/api/devices"));
+  }
+
+  private LoadResult run(String path) throws InterruptedException {
+    HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    HttpRequest request =
+        HttpRequest.newBuilder(URI.create("http://localhost:" + port + path))
+            .header("Authorization", "Bearer " + token)
+            .GET()
+            .build();
+    List<Long> latencies = Collections.synchronizedList(new ArrayList<>(REQUESTS));
+    AtomicInteger failures = new AtomicInteger();
+    Semaphore inFlight = new Semaphore(CONCURRENCY);
+    List<CompletableFuture<?>> calls = new ArrayList<>(REQUESTS);
+
+    long start = System.nanoTime();
+    for (int i = 0; i < REQUESTS; i++) {
+      inFlight.acquire();
+      long sent = System.nanoTime();
+      calls.add(
+          client
+              .sendAsync(request, HttpResponse.BodyHandlers.discarding())
+              .whenComplete(
+                  (response, error) -> {
+                    latencies.add(System.nanoTime() - sent);
+                    if (error != null || response.statusCode() != 200) {
+                      failures.incrementAndGet();
+                    }
+                    inFlight.release();
+                  }));
+    }
+    CompletableFuture.allOf(calls.toArray(CompletableFuture[]::new)).join();
+    long elapsed = System.nanoTime() - start;
+
+    List<Long> sorted = new ArrayList<>(latencies);
+    Collections.sort(sorted);
+    return new LoadResult(
+        REQUESTS * 1e9 / elapsed,
+        percentile(sorted, 0.50),
+        percentile(sorted, 0.99),
+        failures.get());
+  }
+
+  private void report(String path, LoadResult result) {
+    System.out.printf(
+        "[%s] %s: %.0f req/s, p50 %.1f ms, p99 %.1f ms, failures %d%n",
+        mode(), path, result.throughput(), result.p50Ms(), result.p99Ms(), result.failures());
+    assertTrue(
+        result.failures() <= REQUESTS * MAX_FAILURE_RATE,
+        result.failures() + " of " + REQUESTS + " requests failed");
+  }
+
+  private static double percentile(List<Long> sortedNanos, double percentile) {
+    int index = (int) Math.ceil(percentile * sortedNanos.size()) - 1;
+    return sortedNanos.get(Math.max(0, index)) / 1e6;
+  }
+
+  private record LoadResult(double throughput, double p50Ms, double p99Ms, int failures) {}
+}
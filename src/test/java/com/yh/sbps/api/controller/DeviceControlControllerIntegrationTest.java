@@ -2,6 +2,10 @@ package com.yh.sbps.api.controller;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
@@ -9,14 +13,17 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.yh.sbps.api.entity.Device;
-import com.yh.sbps.api.entity.DeviceType;
+import com.yh.sbps.api.dto.PlugToggleBatchRequestDto;
+import com.yh.sbps.api.dto.PlugToggleDto;
 import com.yh.sbps.api.entity.Role;
 import com.yh.sbps.api.entity.User;
 import com.yh.sbps.api.integration.DeviceServiceWS;
 import com.yh.sbps.api.service.DeviceService;
 import com.yh.sbps.api.service.PushNotificationService;
-import java.util.Optional;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.LongStream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -32,6 +39,11 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
 
 @SpringBootTest
 @AutoConfigureMockMvc
@@ -45,38 +57,28 @@ class DeviceControlControllerIntegrationTest {
   @Autowired private DeviceServiceWS deviceServiceWS;
   @Autowired private PushNotificationService pushNotificationService;
   private User testUser;
-  private Device testDevice;
 
   @BeforeEach
   void setUp() {
+    Mockito.reset(deviceService, deviceServiceWS, pushNotificationService);
     testUser = new User("test@example.com", "test", "password", Role.USER);
     testUser.setId(1L);
-
-    testDevice = new Device();
-    testDevice.setId(1L);
-    testDevice.setName("Test Device");
-    testDevice.setMqttPrefix("test/device");
-    testDevice.setDeviceType(DeviceType.SWITCHABLE_APPLIANCE);
-    testDevice.setPriority(1);
-    testDevice.setWattage(1000);
-    testDevice.setUser(testUser);
   }
 
   @Test
   @DisplayName("Should toggle plug successfully when user owns device")
   void togglePlug_UserOwnsDevice_ReturnsSuccess() throws Exception {
     // Arrange
-    when(deviceService.getDeviceById(1L)).thenReturn(Optional.of(testDevice));
-    when(deviceServiceWS.togglePlug(1L, true))
-        .thenReturn(ResponseEntity.ok("Device toggled successfully"));
+    when(deviceService.isDeviceOwnedBy(1L, testUser.getId())).thenReturn(true);
+    when(deviceServiceWS.togglePlugAsync(1L, true))
+        .thenReturn(Mono.just(ResponseEntity.ok("Device toggled successfully")));
 
     // Act & Assert
-    mockMvc
-        .perform(
-            post("/api/control/plug/1/toggle")
-                .param("on", "true")
-                .with(user(testUser))
-                .contentType(MediaType.APPLICATION_JSON))
+    performAsync(
+        post("/api/control/plug/1/toggle")
+            .param("on", "true")
+            .with(user(testUser))
+            .contentType(MediaType.APPLICATION_JSON))
         .andExpect(status().isOk())
         .andExpect(content().string("Device toggled successfully"));
   }
@@ -88,36 +90,132 @@ class DeviceControlControllerIntegrationTest {
     User otherUser = new User("other@example.com", "other", "password", Role.USER);
     otherUser.setId(2L);
 
-    when(deviceService.getDeviceById(1L)).thenReturn(Optional.of(testDevice));
+    when(deviceService.isDeviceOwnedBy(1L, otherUser.getId())).thenReturn(false);
 
     // Act & Assert
-    mockMvc
-        .perform(
-            post("/api/control/plug/1/toggle")
-                .param("on", "true")
-                .with(user(otherUser))
-                .contentType(MediaType.APPLICATION_JSON))
+    performAsync(
+        post("/api/control/plug/1/toggle")
+            .param("on", "true")
+            .with(user(otherUser))
+            .contentType(MediaType.APPLICATION_JSON))
         .andExpect(status().isForbidden())
         .andExpect(content().string("Access denied"));
+    verifyNoInteractions(deviceServiceWS);
   }
 
   @Test
   @DisplayName("Should return 403 when device not found")
   void togglePlug_DeviceNotFound_ReturnsForbidden() throws Exception {
     // Arrange
-    when(deviceService.getDeviceById(999L)).thenReturn(Optional.empty());
+    when(deviceService.isDeviceOwnedBy(999L, testUser.getId())).thenReturn(false);
 
     // Act & Assert
-    mockMvc
-        .perform(
-            post("/api/control/plug/999/toggle")
-                .param("on", "true")
-                .with(user(testUser))
-                .contentType(MediaType.APPLICATION_JSON))
+    performAsync(
+        post("/api/control/plug/999/toggle")
+            .param("on", "true")
+            .with(user(testUser))
+            .contentType(MediaType.APPLICATION_JSON))
         .andExpect(status().isForbidden())
         .andExpect(content().string("Access denied"));
   }
 
+  @Test
+  @DisplayName("Should toggle owned plugs in one batch and deny foreign ones")
+  void togglePlugs_MixedOwnership_ReturnsPerDeviceResults() throws Exception {
+    // Arrange
+    PlugToggleBatchRequestDto request =
+        new PlugToggleBatchRequestDto(
+            List.of(
+                new PlugToggleDto(1L, false),
+                new PlugToggleDto(2L, false),
+                new PlugToggleDto(3L, true)));
+    when(deviceService.getOwnedDeviceIds(eq(testUser), any())).thenReturn(Set.of(1L, 3L));
+    when(deviceServiceWS.togglePlugAsync(1L, false))
+        .thenReturn(Mono.just(ResponseEntity.ok("off")));
+    when(deviceServiceWS.togglePlugAsync(3L, true))
+        .thenReturn(Mono.just(ResponseEntity.status(HttpStatus.BAD_GATEWAY).body("offline")));
+
+    // Act & Assert
+    performAsync(
+        post("/api/control/plugs/toggle")
+            .with(user(testUser))
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(objectMapper.writeValueAsString(request)))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.length()").value(3))
+        .andExpect(jsonPath("$[0].deviceId").value(1))
+        .andExpect(jsonPath("$[0].status").value(200))
+        .andExpect(jsonPath("$[0].body").value("off"))
+        .andExpect(jsonPath("$[1].deviceId").value(2))
+        .andExpect(jsonPath("$[1].status").value(403))
+        .andExpect(jsonPath("$[2].deviceId").value(3))
+        .andExpect(jsonPath("$[2].status").value(502))
+        .andExpect(jsonPath("$[2].body").value("offline"));
+    verify(deviceServiceWS, never()).togglePlugAsync(eq(2L), any(Boolean.class));
+  }
+
+  @Test
+  @DisplayName("Should reject an empty toggle batch")
+  void togglePlugs_EmptyBatch_ReturnsBadRequest() throws Exception {
+    // Act & Assert
+    performAsync(
+        post("/api/control/plugs/toggle")
+            .with(user(testUser))
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("{\"toggles\":[]}"))
+        .andExpect(status().isBadRequest());
+  }
+
+  @Test
+  @DisplayName("Should reject a toggle batch without toggles")
+  void togglePlugs_MissingToggles_ReturnsBadRequest() throws Exception {
+    // Act & Assert
+    performAsync(
+        post("/api/control/plugs/toggle")
+            .with(user(testUser))
+            .contentType(MediaType.APPLICATION_JSON)
+            .content("{}"))
+        .andExpect(status().isBadRequest());
+    verifyNoInteractions(deviceServiceWS);
+  }
+
+  @Test
+  @DisplayName("Should reject a toggle batch that repeats a device")
+  void togglePlugs_DuplicateDevice_ReturnsBadRequest() throws Exception {
+    // Arrange
+    PlugToggleBatchRequestDto request =
+        new PlugToggleBatchRequestDto(
+            List.of(new PlugToggleDto(1L, true), new PlugToggleDto(1L, false)));
+
+    // Act & Assert
+    performAsync(
+        post("/api/control/plugs/toggle")
+            .with(user(testUser))
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(objectMapper.writeValueAsString(request)))
+        .andExpect(status().isBadRequest());
+    verifyNoInteractions(deviceServiceWS);
+  }
+
+  @Test
+  @DisplayName("Should reject a toggle batch above the size cap")
+  void togglePlugs_OversizedBatch_ReturnsBadRequest() throws Exception {
+    // Arrange
+    List<PlugToggleDto> toggles =
+        LongStream.rangeClosed(1, PlugToggleBatchRequestDto.MAX_TOGGLES + 1)
+            .mapToObj(id -> new PlugToggleDto(id, true))
+            .toList();
+
+    // Act & Assert
+    performAsync(
+        post("/api/control/plugs/toggle")
+            .with(user(testUser))
+            .contentType(MediaType.APPLICATION_JSON)
+            .content(objectMapper.writeValueAsString(new PlugToggleBatchRequestDto(toggles))))
+        .andExpect(status().isBadRequest());
+    verifyNoInteractions(deviceServiceWS);
+  }
+
   @Test
   @DisplayName("Should get device status successfully")
   void getStatus_UserOwnsDevice_ReturnsStatus() throws Exception {
@@ -125,12 +223,11 @@ class DeviceControlControllerIntegrationTest {
     JsonNode statusJson =
         objectMapper.readTree("{\"power\": 100, \"voltage\": 220, \"current\": 0.45}");
 
-    when(deviceService.getDeviceById(1L)).thenReturn(Optional.of(testDevice));
-    when(deviceServiceWS.getStatus(1L)).thenReturn(ResponseEntity.ok(statusJson));
+    when(deviceService.isDeviceOwnedBy(1L, testUser.getId())).thenReturn(true);
+    when(deviceServiceWS.getStatusAsync(1L)).thenReturn(Mono.just(ResponseEntity.ok(statusJson)));
 
     // Act & Assert
-    mockMvc
-        .perform(get("/api/control/plug/1/status").with(user(testUser)))
+    performAsync(get("/api/control/plug/1/status").with(user(testUser)))
         .andExpect(status().isOk())
         .andExpect(jsonPath("$.power").value(100))
         .andExpect(jsonPath("$.voltage").value(220))
@@ -143,13 +240,13 @@ class DeviceControlControllerIntegrationTest {
     // Arrange
     JsonNode errorJson = objectMapper.readTree("{\"error\": \"Device offline\"}");
 
-    when(deviceService.getDeviceById(1L)).thenReturn(Optional.of(testDevice));
-    when(deviceServiceWS.getStatus(1L))
-        .thenReturn(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(errorJson));
+    when(deviceService.isDeviceOwnedBy(1L, testUser.getId())).thenReturn(true);
+    when(deviceServiceWS.getStatusAsync(1L))
+        .thenReturn(
+            Mono.just(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(errorJson)));
 
     // Act & Assert
-    mockMvc
-        .perform(get("/api/control/plug/1/status").with(user(testUser)))
+    performAsync(get("/api/control/plug/1/status").with(user(testUser)))
         .andExpect(status().isServiceUnavailable())
         .andExpect(jsonPath("$.error").value("Device offline"));
   }
@@ -158,12 +255,11 @@ class DeviceControlControllerIntegrationTest {
   @DisplayName("Should get online status successfully")
   void getOnline_UserOwnsDevice_ReturnsOnlineStatus() throws Exception {
     // Arrange
-    when(deviceService.getDeviceById(1L)).thenReturn(Optional.of(testDevice));
-    when(deviceServiceWS.getOnline(1L)).thenReturn(ResponseEntity.ok(true));
+    when(deviceService.isDeviceOwnedBy(1L, testUser.getId())).thenReturn(true);
+    when(deviceServiceWS.getOnlineAsync(1L)).thenReturn(Mono.just(ResponseEntity.ok(true)));
 
     // Act & Assert
-    mockMvc
-        .perform(get("/api/control/plug/1/online").with(user(testUser)))
+    performAsync(get("/api/control/plug/1/online").with(user(testUser)))
         .andExpect(status().isOk())
         .andExpect(content().string("true"));
   }
@@ -175,13 +271,13 @@ class DeviceControlControllerIntegrationTest {
     User otherUser = new User("other@example.com", "other", "password", Role.USER);
     otherUser.setId(2L);
 
-    when(deviceService.getDeviceById(1L)).thenReturn(Optional.of(testDevice));
+    when(deviceService.isDeviceOwnedBy(1L, otherUser.getId())).thenReturn(false);
 
     // Act & Assert
-    mockMvc
-        .perform(get("/api/control/plug/1/online").with(user(otherUser)))
+    performAsync(get("/api/control/plug/1/online").with(user(otherUser)))
         .andExpect(status().isForbidden())
         .andExpect(content().string("Access denied"));
+    verifyNoInteractions(deviceServiceWS);
   }
 
   @Test
@@ -193,12 +289,11 @@ class DeviceControlControllerIntegrationTest {
             "[{\"timestamp\": \"2024-01-01T10:00:00\", \"type\": \"power_on\"}, "
                 + "{\"timestamp\": \"2024-01-01T11:00:00\", \"type\": \"power_off\"}]");
 
-    when(deviceService.getDeviceById(1L)).thenReturn(Optional.of(testDevice));
-    when(deviceServiceWS.getEvents(1L)).thenReturn(ResponseEntity.ok(eventsJson));
+    when(deviceService.isDeviceOwnedBy(1L, testUser.getId())).thenReturn(true);
+    when(deviceServiceWS.getEventsAsync(1L)).thenReturn(Mono.just(ResponseEntity.ok(eventsJson)));
 
     // Act & Assert
-    mockMvc
-        .perform(get("/api/control/plug/1/events").with(user(testUser)))
+    performAsync(get("/api/control/plug/1/events").with(user(testUser)))
         .andExpect(status().isOk())
         .andExpect(jsonPath("$[0].type").value("power_on"))
         .andExpect(jsonPath("$[1].type").value("power_off"));
@@ -211,49 +306,142 @@ class DeviceControlControllerIntegrationTest {
     User otherUser = new User("other@example.com", "other", "password", Role.USER);
     otherUser.setId(2L);
 
-    when(deviceService.getDeviceById(1L)).thenReturn(Optional.of(testDevice));
+    when(deviceService.isDeviceOwnedBy(1L, otherUser.getId())).thenReturn(false);
 
     // Act & Assert
-    mockMvc
-        .perform(get("/api/control/plug/1/events").with(user(otherUser)))
+    performAsync(get("/api/control/plug/1/events").with(user(otherUser)))
         .andExpect(status().isForbidden())
         .andExpect(content().string("Access denied"));
+    verifyNoInteractions(deviceServiceWS);
   }
 
   @Test
   @DisplayName("Should handle exception in toggle plug")
   void togglePlug_ExceptionThrown_ReturnsInternalServerError() throws Exception {
     // Arrange
-    when(deviceService.getDeviceById(1L)).thenReturn(Optional.of(testDevice));
-    when(deviceServiceWS.togglePlug(anyLong(), any(Boolean.class)))
+    when(deviceService.isDeviceOwnedBy(1L, testUser.getId())).thenReturn(true);
+    when(deviceServiceWS.togglePlugAsync(anyLong(), any(Boolean.class)))
         .thenThrow(new RuntimeException("Connection failed"));
 
     // Act & Assert
-    mockMvc
-        .perform(
-            post("/api/control/plug/1/toggle")
-                .param("on", "true")
-                .with(user(testUser))
-                .contentType(MediaType.APPLICATION_JSON))
+    performAsync(
+        post("/api/control/plug/1/toggle")
+            .param("on", "true")
+            .with(user(testUser))
+            .contentType(MediaType.APPLICATION_JSON))
         .andExpect(status().isInternalServerError())
         .andExpect(content().string("Connection failed"));
   }
 
+  @Test
+  @DisplayName("Should pass a fast-fail 503 from the device-service client through")
+  void togglePlug_DeviceServiceUnavailable_ReturnsServiceUnavailable() throws Exception {
+    // Arrange
+    when(deviceService.isDeviceOwnedBy(1L, testUser.getId())).thenReturn(true);
+    when(deviceServiceWS.togglePlugAsync(anyLong(), any(Boolean.class)))
+        .thenReturn(
+            Mono.error(
+                new ResponseStatusException(
+                    HttpStatus.SERVICE_UNAVAILABLE, "Device service temporarily unavailable")));
+
+    // Act & Assert
+    performAsync(
+        post("/api/control/plug/1/toggle")
+            .param("on", "true")
+            .with(user(testUser))
+            .contentType(MediaType.APPLICATION_JSON))
+        .andExpect(status().isServiceUnavailable())
+        .andExpect(content().string("Device service temporarily unavailable"));
+  }
+
   @Test
   @DisplayName("Should handle exception in get status")
   void getStatus_ExceptionThrown_ReturnsInternalServerError() throws Exception {
     // Arrange
-    when(deviceService.getDeviceById(1L)).thenReturn(Optional.of(testDevice));
-    when(deviceServiceWS.getStatus(anyLong()))
+    when(deviceService.isDeviceOwnedBy(1L, testUser.getId())).thenReturn(true);
+    when(deviceServiceWS.getStatusAsync(anyLong()))
         .thenThrow(new RuntimeException("Service unavailable"));
 
     // Act & Assert
-    mockMvc
-        .perform(get("/api/control/plug/1/status").with(user(testUser)))
+    performAsync(get("/api/control/plug/1/status").with(user(testUser)))
         .andExpect(status().isInternalServerError())
         .andExpect(content().string("Service unavailable"));
   }
 
+  @Test
+  @DisplayName("Should ingest a JSON array of updates and reject those without a username")
+  void receiveDeviceUpdates_JsonArray_ReturnsAcceptedAndRejected() throws Exception {
+    // Arrange
+    User serviceUser = new User("service@example.com", "service", "password", Role.SERVICE_USER);
+    String body =
+        "[{\"deviceId\":1,\"username\":\"test\",\"isOnline\":true},"
+            + "{\"deviceId\":2,\"username\":\"other\",\"isOnline\":false},"
+            + "{\"deviceId\":3,\"isOnline\":true}]";
+
+    // Act & Assert
+    mockMvc
+        .perform(
+            post("/api/control/internal/device-updates")
+                .with(user(serviceUser))
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(body))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.accepted").value(2))
+        .andExpect(jsonPath("$.rejected").value(1));
+  }
+
+  @Test
+  @DisplayName("Should refuse a JSON array longer than the ingest batch limit")
+  void receiveDeviceUpdates_OversizedJsonArray_ReturnsPayloadTooLarge() throws Exception {
+    // Arrange
+    User serviceUser = new User("service@example.com", "service", "password", Role.SERVICE_USER);
+    String update = "{\"deviceId\":1,\"username\":\"test\"}";
+    String body = "[" + String.join(",", Collections.nCopies(5001, update)) + "]";
+
+    // Act & Assert
+    mockMvc
+        .perform(
+            post("/api/control/internal/device-updates")
+                .with(user(serviceUser))
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(body))
+        .andExpect(status().isPayloadTooLarge());
+  }
+
+  @Test
+  @DisplayName("Should ingest an NDJSON stream of updates")
+  void receiveDeviceUpdates_Ndjson_ReturnsAccepted() throws Exception {
+    // Arrange
+    User serviceUser = new User("service@example.com", "service", "password", Role.SERVICE_USER);
+    String body =
+        "{\"deviceId\":1,\"username\":\"test\",\"statusJson\":{\"apower\":12.5}}\n"
+            + "{\"deviceId\":1,\"username\":\"test\",\"statusJson\":{\"apower\":13.0}}\n";
+
+    // Act & Assert
+    mockMvc
+        .perform(
+            post("/api/control/internal/device-updates")
+                .with(user(serviceUser))
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .content(body))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.accepted").value(2))
+        .andExpect(jsonPath("$.rejected").value(0));
+  }
+
+  @Test
+  @DisplayName("Should reject batch ingest from a regular user")
+  void receiveDeviceUpdates_RegularUser_ReturnsForbidden() throws Exception {
+    // Act & Assert
+    mockMvc
+        .perform(
+            post("/api/control/internal/device-updates")
+                .with(user(testUser))
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[]"))
+        .andExpect(status().isForbidden());
+  }
+
   @Test
   @DisplayName("Should require authentication for all endpoints")
   void allEndpoints_NoAuthentication_ReturnsForbidden() throws Exception {
@@ -275,6 +463,13 @@ class DeviceControlControllerIntegrationTest {
     mockMvc.perform(get("/api/control/plug/1/events")).andExpect(status().isForbidden());
   }
 
+  private ResultActions performAsync(MockHttpServletRequestBuilder requestBuilder)
+      throws Exception {
+    MvcResult result =
+        mockMvc.perform(requestBuilder).andExpect(request().asyncStarted()).andReturn();
+    return mockMvc.perform(asyncDispatch(result));
+  }
+
   @TestConfiguration
   static class TestConfig {
     @Bean
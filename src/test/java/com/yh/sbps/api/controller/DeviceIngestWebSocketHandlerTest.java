@@ -0,0 +1,145 @@
+package com.yh.sbps.api.controller;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yh.sbps.api.dto.DeviceStatusIngestResultDto;
+import com.yh.sbps.api.entity.Role;
+import com.yh.sbps.api.entity.User;
+import com.yh.sbps.api.service.DeviceStatusIngestService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("DeviceIngestWebSocketHandler Unit Tests")
+class DeviceIngestWebSocketHandlerTest {
+
+  @Mock private DeviceStatusIngestService deviceStatusIngestService;
+  @Mock private WebSocketSession session;
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private DeviceIngestWebSocketHandler handler;
+
+  @BeforeEach
+  void setUp() {
+    handler = handler(8);
+  }
+
+  @Test
+  @DisplayName("Should open the credit window for the device service")
+  void afterConnectionEstablished_ServiceUser_SendsCredit() throws Exception {
+    // Arrange
+    when(session.getPrincipal()).thenReturn(principal(Role.SERVICE_USER));
+
+    // Act
+    handler.afterConnectionEstablished(session);
+
+    // Assert
+    verify(session).setTextMessageSizeLimit(65536);
+    JsonNode signal = lastSignal();
+    assertEquals("CREDIT", signal.get("type").asText());
+    assertEquals(64, signal.get("credits").asInt());
+  }
+
+  @Test
+  @DisplayName("Should close sockets opened by anyone but the device service")
+  void afterConnectionEstablished_RegularUser_Closes() throws Exception {
+    // Arrange
+    when(session.getPrincipal()).thenReturn(principal(Role.USER));
+
+    // Act
+    handler.afterConnectionEstablished(session);
+
+    // Assert
+    verify(session).close(CloseStatus.POLICY_VIOLATION);
+    verify(session, never()).sendMessage(any());
+  }
+
+  @Test
+  @DisplayName("Should apply a frame and acknowledge it with its sequence number")
+  void handleTextMessage_ValidFrame_Acks() throws Exception {
+    // Arrange
+    when(deviceStatusIngestService.ingest(anyList()))
+        .thenReturn(new DeviceStatusIngestResultDto(2, 0));
+    String frame =
+        "{\"seq\":7,\"updates\":[{\"deviceId\":1,\"username\":\"test\"},"
+            + "{\"deviceId\":2,\"username\":\"test\"}]}";
+
+    // Act
+    handler.handleTextMessage(session, new TextMessage(frame));
+
+    // Assert
+    verify(deviceStatusIngestService).ingest(argThat(updates -> updates.size() == 2));
+    JsonNode signal = lastSignal();
+    assertEquals("ACK", signal.get("type").asText());
+    assertEquals(7, signal.get("seq").asLong());
+    assertEquals(2, signal.get("accepted").asInt());
+  }
+
+  @Test
+  @DisplayName("Should refuse malformed frames without applying them")
+  void handleTextMessage_Malformed_Nacks() throws Exception {
+    // Act
+    handler.handleTextMessage(session, new TextMessage("{not json"));
+
+    // Assert
+    verifyNoInteractions(deviceStatusIngestService);
+    JsonNode signal = lastSignal();
+    assertEquals("NACK", signal.get("type").asText());
+    assertEquals("malformed", signal.get("reason").asText());
+  }
+
+  @Test
+  @DisplayName("Should shed frames with a retry hint when no capacity is left")
+  void handleTextMessage_Overloaded_NacksWithRetryAfter() throws Exception {
+    // Arrange
+    handler = handler(0);
+
+    // Act
+    handler.handleTextMessage(session, new TextMessage("{\"seq\":3,\"updates\":[]}"));
+
+    // Assert
+    verifyNoInteractions(deviceStatusIngestService);
+    JsonNode signal = lastSignal();
+    assertEquals("NACK", signal.get("type").asText());
+    assertEquals(3, signal.get("seq").asLong());
+    assertEquals("overloaded", signal.get("reason").asText());
+    assertEquals(500, signal.get("retryAfterMs").asLong());
+  }
+
+  private DeviceIngestWebSocketHandler handler(int maxConcurrentFrames) {
+    return new DeviceIngestWebSocketHandler(
+        deviceStatusIngestService,
+        objectMapper,
+        64,
+        100,
+        65536,
+        maxConcurrentFrames,
+        Duration.ofMillis(500),
+        new SimpleMeterRegistry());
+  }
+
+  private static UsernamePasswordAuthenticationToken principal(Role role) {
+    User user = new User("service@example.com", "password", "service", role);
+    return new UsernamePasswordAuthenticationToken(user, null, user.getAuthorities());
+  }
+
+  private JsonNode lastSignal() throws Exception {
+    ArgumentCaptor<TextMessage> sent = ArgumentCaptor.forClass(TextMessage.class);
+    verify(session, atLeastOnce()).sendMessage(sent.capture());
+    return objectMapper.readTree(sent.getValue().getPayload());
+  }
+}
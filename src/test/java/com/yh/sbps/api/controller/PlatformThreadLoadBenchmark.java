@@ -0,0 +1,15 @@
+package com.yh.sbps.api.controller;
+
+import org.junit.jupiter.api.DisplayName;
+import org.springframework.test.context.TestPropertySource;
+
+@DisplayName("Device list load benchmark (platform threads)")
+@TestPropertySource(
+    properties = {"spring.threads.virtual.enabled=false", "server.tomcat.threads.max=50"})
+class PlatformThreadLoadBenchmark extends AbstractControlLoadBenchmark {
+
+  @Override
+  protected String mode() {
+    return "platform threads";
+  }
+}
@@ -0,0 +1,15 @@
+package com.yh.sbps.api.controller;
+
+import org.junit.jupiter.api.DisplayName;
+import org.springframework.test.context.TestPropertySource;
+
+@DisplayName("Device list load benchmark (virtual threads)")
+@TestPropertySource(
+    properties = {"spring.threads.virtual.enabled=true", "server.tomcat.threads.max=50"})
+class VirtualThreadLoadBenchmark extends AbstractControlLoadBenchmark {
+
+  @Override
+  protected String mode() {
+    return "virtual threads";
+  }
+}
@@ -0,0 +1,152 @@
+package com.yh.sbps.api.integration;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.yh.sbps.api.config.DeviceServiceClientConfig;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.client.reactive.ClientHttpConnector;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * Calls {@code getStatusAsync} with many concurrent callers against a device service where one
+ * request in ten hangs, once through an untuned client and once through the pooled client from
+ * {@link DeviceServiceClientConfig}, and prints latency percentiles for both. Run with {@code
+ * ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+class DeviceServiceClientLoadBenchmark {
+
+  private static final int CONCURRENCY = 100;
+  private static final int REQUESTS = 1_000;
+  private static final long FAST_DELAY_MS = 20;
+  private static final long SLOW_DELAY_MS = 3_000;
+  private static final Duration RESPONSE_TIMEOUT = Duration.ofMillis(500);
+
+  private MockWebServer deviceService;
+  private ServiceTokenManager serviceTokenManager;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    AtomicInteger received = new AtomicInteger();
+    deviceService = new MockWebServer();
+    deviceService.setDispatcher(
+        new Dispatcher() {
+          @Override
+          public MockResponse dispatch(RecordedRequest request) {
+            long delay = received.incrementAndGet() % 10 == 0 ? SLOW_DELAY_MS : FAST_DELAY_MS;
+            return new MockResponse()
+                .setHeadersDelay(delay, TimeUnit.MILLISECONDS)
+                .setHeader("Content-Type", "application/json")
+                .setBody("{\"output\":true}");
+          }
+        });
+    deviceService.start();
+    serviceTokenManager = mock(ServiceTokenManager.class);
+    when(serviceTokenManager.getToken()).thenReturn(Mono.just("service-token"));
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    deviceService.shutdown();
+  }
+
+  @Test
+  void getStatus_UnderDegradedUpstream() {
+    LoadResult untuned = run(new ReactorClientHttpConnector());
+    report("untuned", untuned);
+
+    ConnectionProvider pool =
+        ConnectionProvider.builder("device-service-benchmark")
+            .maxConnections(CONCURRENCY / 2)
+            .pendingAcquireMaxCount(REQUESTS)
+            .pendingAcquireTimeout(Duration.ofSeconds(2))
+            .maxIdleTime(Duration.ofSeconds(30))
+            .build();
+    try {
+      LoadResult tuned =
+          run(
+              new ReactorClientHttpConnector(
+                  DeviceServiceClientConfig.httpClient(
+                      pool, Duration.ofSeconds(1), RESPONSE_TIMEOUT, false)));
+      report("pooled", tuned);
+    } finally {
+      pool.dispose();
+    }
+  }
+
+  private LoadResult run(ClientHttpConnector connector) {
+    String baseUrl = deviceService.url("/").toString();
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    DeviceServiceWS deviceServiceWS =
+        new DeviceServiceWS(
+            WebClient.builder(),
+            connector,
+            baseUrl,
+            serviceTokenManager,
+            Duration.ofMillis(20),
+            CircuitBreakerRegistry.ofDefaults(),
+            BulkheadRegistry.of(BulkheadConfig.custom().maxConcurrentCalls(REQUESTS).build()),
+            new RequestHedger(false, 0.95, Duration.ofMillis(20), 0.05, meterRegistry),
+            meterRegistry);
+    List<Long> latencies = Collections.synchronizedList(new ArrayList<>(REQUESTS));
+    AtomicInteger failures = new AtomicInteger();
+
+    long start = System.nanoTime();
+    Flux.range(0, REQUESTS)
+        .flatMap(
+            i ->
+                Mono.defer(
+                    () -> {
+                      long sent = System.nanoTime();
+                      return deviceServiceWS
+                          .getStatusAsync((long) (i % 50))
+                          .doOnError(e -> failures.incrementAndGet())
+                          .onErrorResume(e -> Mono.empty())
+                          .doFinally(signal -> latencies.add(System.nanoTime() - sent));
+                    }),
+            CONCURRENCY)
+        .blockLast();
+    long elapsed = System.nanoTime() - start;
+
+    List<Long> sorted = new ArrayList<>(latencies);
+    Collections.sort(sorted);
+    return new LoadResult(
+        REQUESTS * 1e9 / elapsed, percentile(sorted, 0.50), percentile(sorted, 0.99), failures.get());
+  }
+
+  private static void report(String client, LoadResult result) {
+    System.out.printf(
+        "[%s] getStatus: %.0f req/s, p50 %.1f ms, p99 %.1f ms, failures %d%n",
+        client, result.throughput(), result.p50Ms(), result.p99Ms(), result.failures());
+  }
+
+  private static double percentile(List<Long> sortedNanos, double quantile) {
+    int index = (int) Math.ceil(quantile * sortedNanos.size()) - 1;
+    return sortedNanos.get(Math.max(0, index)) / 1e6;
+  }
+
+  private record LoadResult(double throughput, double p50Ms, double p99Ms, int failures) {}
+}
@@ -5,12 +5,17 @@ import static org.mockito.Mockito.*;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.yh.sbps.api.entity.Device;
-import com.yh.sbps.api.entity.DeviceType;
-import com.yh.sbps.api.entity.User;
-import com.yh.sbps.api.repository.UserRepository;
-import com.yh.sbps.api.service.JwtService;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.yh.sbps.api.config.DeviceServiceClientConfig;
+import com.yh.sbps.api.dto.DeviceNotificationDto;
+import com.yh.sbps.api.dto.DeviceStatusDto;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
@@ -24,17 +29,22 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
 import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
 
 @ExtendWith(MockitoExtension.class)
 @DisplayName("DeviceServiceWS Unit Tests")
 class DeviceServiceWSTest {
 
-  @Mock private JwtService jwtService;
-  @Mock private UserRepository userRepository;
+  @Mock private ServiceTokenManager serviceTokenManager;
   private MockWebServer mockWebServer;
   private DeviceServiceWS deviceServiceWS;
+  private CircuitBreakerRegistry circuitBreakers;
   private ObjectMapper objectMapper;
 
   @BeforeEach
@@ -44,12 +54,27 @@ class DeviceServiceWSTest {
 
     String baseUrl = mockWebServer.url("/").toString();
     WebClient.Builder webClientBuilder = WebClient.builder().baseUrl(baseUrl);
-
-    deviceServiceWS = new DeviceServiceWS(webClientBuilder, baseUrl, jwtService, userRepository);
+    DeviceServiceClientConfig clientConfig = new DeviceServiceClientConfig();
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    circuitBreakers =
+        clientConfig.deviceServiceCircuitBreakers(
+            50, Duration.ofSeconds(2), 20, 10, Duration.ofSeconds(10), meterRegistry);
+
+    deviceServiceWS =
+        new DeviceServiceWS(
+            webClientBuilder,
+            new ReactorClientHttpConnector(),
+            baseUrl,
+            serviceTokenManager,
+            Duration.ofMillis(50),
+            circuitBreakers,
+            clientConfig.deviceServiceBulkheads(20, 40, 5, meterRegistry),
+            new RequestHedger(false, 0.95, Duration.ofMillis(20), 0.05, meterRegistry),
+            meterRegistry);
     objectMapper = new ObjectMapper();
 
-    when(userRepository.findByRole(any())).thenReturn(java.util.Optional.of(mock(User.class)));
-    when(jwtService.generateToken(any())).thenReturn("mockedToken");
+    // Calls rejected by a circuit breaker never ask for a token
+    lenient().when(serviceTokenManager.getToken()).thenReturn(Mono.just("mockedToken"));
   }
 
   @AfterEach
@@ -58,33 +83,72 @@ class DeviceServiceWSTest {
   }
 
   @Test
-  @DisplayName("Should notify device update successfully")
-  void notifyDeviceUpdate_ValidDevice_SendsRequest() throws InterruptedException {
+  @DisplayName("Should send notifications as one batch request")
+  void sendNotifications_ValidBatch_SendsRequest() throws InterruptedException {
     // Arrange
-    Device device = new Device();
-    device.setId(1L);
-    device.setName("Test Device");
-    device.setMqttPrefix("test/device");
-    device.setDeviceType(DeviceType.SWITCHABLE_APPLIANCE);
-
+    ObjectNode device = objectMapper.createObjectNode().put("mqttPrefix", "test/device");
     mockWebServer.enqueue(new MockResponse().setResponseCode(200).setBody("OK"));
 
     // Act
-    deviceServiceWS.notifyDeviceUpdate(device);
-
-    // Wait a bit for async operation
-    Thread.sleep(100);
+    StepVerifier.create(
+            deviceServiceWS.sendNotifications(
+                List.of(
+                    new DeviceNotificationDto(
+                        DeviceNotificationDto.Type.SUBSCRIBE, "test/device", device))))
+        .verifyComplete();
 
     // Assert
-    RecordedRequest request = mockWebServer.takeRequest();
+    RecordedRequest request = mockWebServer.takeRequest(1, TimeUnit.SECONDS);
+    assertNotNull(request);
     assertEquals("POST", request.getMethod());
-    assertTrue(request.getPath().contains("/api/device/internal/subscribe"));
+    assertTrue(request.getPath().contains("/api/device/internal/notifications"));
     assertEquals(MediaType.APPLICATION_JSON_VALUE, request.getHeader("Content-Type"));
+    assertTrue(request.getBody().readUtf8().contains("\"SUBSCRIBE\""));
+  }
+
+  @Test
+  @DisplayName("Should fall back to single notifications when the batch endpoint is missing")
+  void sendNotifications_BatchNotFound_SendsIndividually() throws InterruptedException {
+    // Arrange
+    mockWebServer.enqueue(new MockResponse().setResponseCode(404));
+    mockWebServer.enqueue(new MockResponse().setResponseCode(200));
+
+    // Act
+    StepVerifier.create(
+            deviceServiceWS.sendNotifications(
+                List.of(
+                    new DeviceNotificationDto(
+                        DeviceNotificationDto.Type.UNSUBSCRIBE, "test/device", null))))
+        .verifyComplete();
+
+    // Assert
+    RecordedRequest batch = mockWebServer.takeRequest(1, TimeUnit.SECONDS);
+    RecordedRequest single = mockWebServer.takeRequest(1, TimeUnit.SECONDS);
+    assertNotNull(batch);
+    assertNotNull(single);
+    assertTrue(single.getPath().contains("/api/device/internal/unsubscribe"));
+    assertEquals("test/device", single.getBody().readUtf8());
+  }
+
+  @Test
+  @DisplayName("Should propagate notification failures so the outbox can retry")
+  void sendNotifications_ServerError_EmitsError() {
+    // Arrange
+    mockWebServer.enqueue(new MockResponse().setResponseCode(503));
+
+    // Act & Assert
+    StepVerifier.create(
+            deviceServiceWS.sendNotifications(
+                List.of(
+                    new DeviceNotificationDto(
+                        DeviceNotificationDto.Type.REFRESH_STATE, "test/device", null))))
+        .expectError(WebClientResponseException.class)
+        .verify();
   }
 
   @Test
   @DisplayName("Should toggle plug successfully")
-  void togglePlug_ValidRequest_ReturnsSuccess() throws InterruptedException {
+  void togglePlugAsync_ValidRequest_ReturnsSuccess() throws InterruptedException {
     // Arrange
     Long deviceId = 1L;
     boolean on = true;
@@ -97,7 +161,7 @@ class DeviceServiceWSTest {
             .addHeader("Content-Type", "text/plain"));
 
     // Act
-    ResponseEntity<String> response = deviceServiceWS.togglePlug(deviceId, on);
+    ResponseEntity<String> response = deviceServiceWS.togglePlugAsync(deviceId, on).block();
 
     // Assert
     assertEquals(HttpStatus.OK, response.getStatusCode());
@@ -110,7 +174,7 @@ class DeviceServiceWSTest {
 
   @Test
   @DisplayName("Should handle toggle plug error")
-  void togglePlug_ServerError_ReturnsErrorResponse() {
+  void togglePlugAsync_ServerError_ReturnsErrorResponse() {
     // Arrange
     Long deviceId = 1L;
     boolean on = true;
@@ -123,7 +187,7 @@ class DeviceServiceWSTest {
             .addHeader("Content-Type", "text/plain"));
 
     // Act
-    ResponseEntity<String> response = deviceServiceWS.togglePlug(deviceId, on);
+    ResponseEntity<String> response = deviceServiceWS.togglePlugAsync(deviceId, on).block();
 
     // Assert
     assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, response.getStatusCode());
@@ -132,7 +196,7 @@ class DeviceServiceWSTest {
 
   @Test
   @DisplayName("Should get status successfully")
-  void getStatus_ValidRequest_ReturnsJsonStatus() throws Exception {
+  void getStatusAsync_ValidRequest_ReturnsJsonStatus() throws Exception {
     // Arrange
     Long deviceId = 1L;
     String jsonResponse = "{\"power\": 100, \"voltage\": 220, \"current\": 0.45}";
@@ -144,7 +208,7 @@ class DeviceServiceWSTest {
             .addHeader("Content-Type", "application/json"));
 
     // Act
-    ResponseEntity<JsonNode> response = deviceServiceWS.getStatus(deviceId);
+    ResponseEntity<JsonNode> response = deviceServiceWS.getStatusAsync(deviceId).block();
 
     // Assert
     assertEquals(HttpStatus.OK, response.getStatusCode());
@@ -159,7 +223,7 @@ class DeviceServiceWSTest {
 
   @Test
   @DisplayName("Should handle get status error")
-  void getStatus_ServerError_ReturnsErrorResponse() {
+  void getStatusAsync_ServerError_ReturnsErrorResponse() {
     // Arrange
     Long deviceId = 1L;
     String errorBody = "{\"error\": \"Device not found\"}";
@@ -171,7 +235,7 @@ class DeviceServiceWSTest {
             .addHeader("Content-Type", "application/json"));
 
     // Act
-    ResponseEntity<JsonNode> response = deviceServiceWS.getStatus(deviceId);
+    ResponseEntity<JsonNode> response = deviceServiceWS.getStatusAsync(deviceId).block();
 
     // Assert
     assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
@@ -180,7 +244,7 @@ class DeviceServiceWSTest {
 
   @Test
   @DisplayName("Should get online status successfully")
-  void getOnline_ValidRequest_ReturnsBoolean() throws InterruptedException {
+  void getOnlineAsync_ValidRequest_ReturnsBoolean() throws InterruptedException {
     // Arrange
     Long deviceId = 1L;
 
@@ -191,7 +255,7 @@ class DeviceServiceWSTest {
             .addHeader("Content-Type", "application/json"));
 
     // Act
-    ResponseEntity<Boolean> response = deviceServiceWS.getOnline(deviceId);
+    ResponseEntity<Boolean> response = deviceServiceWS.getOnlineAsync(deviceId).block();
 
     // Assert
     assertEquals(HttpStatus.OK, response.getStatusCode());
@@ -204,14 +268,14 @@ class DeviceServiceWSTest {
 
   @Test
   @DisplayName("Should handle get online error")
-  void getOnline_ServerError_ReturnsErrorStatus() {
+  void getOnlineAsync_ServerError_ReturnsErrorStatus() {
     // Arrange
     Long deviceId = 1L;
 
     mockWebServer.enqueue(new MockResponse().setResponseCode(500).setBody("Internal error"));
 
     // Act
-    ResponseEntity<Boolean> response = deviceServiceWS.getOnline(deviceId);
+    ResponseEntity<Boolean> response = deviceServiceWS.getOnlineAsync(deviceId).block();
 
     // Assert
     assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, response.getStatusCode());
@@ -220,7 +284,7 @@ class DeviceServiceWSTest {
 
   @Test
   @DisplayName("Should get events successfully")
-  void getEvents_ValidRequest_ReturnsJsonEvents() throws Exception {
+  void getEventsAsync_ValidRequest_ReturnsJsonEvents() throws Exception {
     // Arrange
     Long deviceId = 1L;
     String jsonResponse =
@@ -234,7 +298,7 @@ class DeviceServiceWSTest {
             .addHeader("Content-Type", "application/json"));
 
     // Act
-    ResponseEntity<JsonNode> response = deviceServiceWS.getEvents(deviceId);
+    ResponseEntity<JsonNode> response = deviceServiceWS.getEventsAsync(deviceId).block();
 
     // Assert
     assertEquals(HttpStatus.OK, response.getStatusCode());
@@ -249,7 +313,7 @@ class DeviceServiceWSTest {
 
   @Test
   @DisplayName("Should handle get events error")
-  void getEvents_ServerError_ReturnsErrorResponse() {
+  void getEventsAsync_ServerError_ReturnsErrorResponse() {
     // Arrange
     Long deviceId = 1L;
     String errorBody = "{\"error\": \"Failed to retrieve events\"}";
@@ -261,7 +325,7 @@ class DeviceServiceWSTest {
             .addHeader("Content-Type", "application/json"));
 
     // Act
-    ResponseEntity<JsonNode> response = deviceServiceWS.getEvents(deviceId);
+    ResponseEntity<JsonNode> response = deviceServiceWS.getEventsAsync(deviceId).block();
 
     // Assert
     assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, response.getStatusCode());
@@ -270,7 +334,7 @@ class DeviceServiceWSTest {
 
   @Test
   @DisplayName("Should handle non-JSON error response gracefully")
-  void getStatus_NonJsonError_ReturnsFormattedError() {
+  void getStatusAsync_NonJsonError_ReturnsFormattedError() {
     // Arrange
     Long deviceId = 1L;
     String errorBody = "Plain text error message";
@@ -282,7 +346,7 @@ class DeviceServiceWSTest {
             .addHeader("Content-Type", "text/plain"));
 
     // Act
-    ResponseEntity<JsonNode> response = deviceServiceWS.getStatus(deviceId);
+    ResponseEntity<JsonNode> response = deviceServiceWS.getStatusAsync(deviceId).block();
 
     // Assert
     assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
@@ -295,11 +359,123 @@ class DeviceServiceWSTest {
 
   @Test
   @DisplayName("Should handle connection timeout")
-  void togglePlug_ConnectionTimeout_ThrowsException() throws IOException {
+  void togglePlugAsync_ConnectionTimeout_ThrowsException() throws IOException {
+    // Arrange
+    mockWebServer.shutdown();
+
+    // Act & Assert
+    assertThrows(
+        ResponseStatusException.class, () -> deviceServiceWS.togglePlugAsync(1L, true).block());
+  }
+
+  @Test
+  @DisplayName("Should expose toggle as a non-blocking Mono")
+  void togglePlugAsync_ValidRequest_EmitsResponse() {
+    // Arrange
+    mockWebServer.enqueue(
+        new MockResponse()
+            .setResponseCode(200)
+            .setBody("toggled")
+            .addHeader("Content-Type", "text/plain"));
+
+    // Act & Assert
+    StepVerifier.create(deviceServiceWS.togglePlugAsync(1L, false))
+        .assertNext(
+            response -> {
+              assertEquals(HttpStatus.OK, response.getStatusCode());
+              assertEquals("toggled", response.getBody());
+            })
+        .verifyComplete();
+  }
+
+  @Test
+  @DisplayName("Should map unreachable device service to ResponseStatusException in Mono")
+  void getStatusAsync_ConnectionRefused_EmitsResponseStatusException() throws IOException {
     // Arrange
     mockWebServer.shutdown();
 
     // Act & Assert
-    assertThrows(ResponseStatusException.class, () -> deviceServiceWS.togglePlug(1L, true));
+    StepVerifier.create(deviceServiceWS.getStatusAsync(1L))
+        .expectError(ResponseStatusException.class)
+        .verify();
+  }
+
+  @Test
+  @DisplayName("Should fail fast with 503 while the reads circuit breaker is open")
+  void getStatusAsync_CircuitOpen_FailsFastWithServiceUnavailable() {
+    // Arrange
+    circuitBreakers.circuitBreaker(DeviceServiceWS.READ_CALLS).transitionToOpenState();
+
+    // Act & Assert
+    StepVerifier.create(deviceServiceWS.getStatusAsync(1L))
+        .expectErrorSatisfies(
+            e ->
+                assertEquals(
+                    HttpStatus.SERVICE_UNAVAILABLE,
+                    ((ResponseStatusException) e).getStatusCode()))
+        .verify();
+    assertEquals(0, mockWebServer.getRequestCount());
+  }
+
+  @Test
+  @DisplayName("Should keep toggling plugs while the reads circuit breaker is open")
+  void togglePlugAsync_ReadsCircuitOpen_StillCallsDeviceService() {
+    // Arrange
+    circuitBreakers.circuitBreaker(DeviceServiceWS.READ_CALLS).transitionToOpenState();
+    mockWebServer.enqueue(new MockResponse().setResponseCode(200).setBody("OK"));
+
+    // Act & Assert
+    StepVerifier.create(deviceServiceWS.togglePlugAsync(1L, true))
+        .assertNext(response -> assertEquals(HttpStatus.OK, response.getStatusCode()))
+        .verifyComplete();
+    assertEquals(1, mockWebServer.getRequestCount());
+  }
+
+  @Test
+  @DisplayName("Should not count client errors against the circuit breaker")
+  void getStatusAsync_ClientError_NotRecordedAsFailure() {
+    // Arrange
+    mockWebServer.enqueue(new MockResponse().setResponseCode(404).setBody("{}"));
+
+    // Act
+    deviceServiceWS.getStatusAsync(1L).block();
+
+    // Assert
+    assertEquals(
+        0,
+        circuitBreakers
+            .circuitBreaker(DeviceServiceWS.READ_CALLS)
+            .getMetrics()
+            .getNumberOfFailedCalls());
+  }
+
+  @Test
+  @DisplayName("Should share one upstream all-statuses call between concurrent callers")
+  void getAllStatusesAsync_ConcurrentCallers_SingleUpstreamRequest() throws InterruptedException {
+    // Arrange
+    mockWebServer.enqueue(
+        new MockResponse()
+            .setResponseCode(200)
+            .setBody(
+                "{\"1\": {\"online\": true, \"statusJson\": {\"power\": 5}},"
+                    + " \"2\": {\"online\": false}}")
+            .addHeader("Content-Type", "application/json"));
+
+    // Act
+    List<Map<Long, DeviceStatusDto>> results =
+        Flux.merge(
+                deviceServiceWS.getAllStatusesAsync(List.of(1L, 2L)),
+                deviceServiceWS.getAllStatusesAsync(List.of(1L)))
+            .collectList()
+            .block();
+
+    // Assert
+    assertNotNull(results);
+    assertEquals(2, results.size());
+    assertEquals(1, mockWebServer.getRequestCount());
+    RecordedRequest request = mockWebServer.takeRequest();
+    assertTrue(request.getPath().contains("/api/device/internal/all-statuses"));
+    assertTrue(results.stream().anyMatch(r -> r.size() == 1 && r.containsKey(1L)));
+    assertTrue(results.stream().anyMatch(r -> r.size() == 2));
   }
 }
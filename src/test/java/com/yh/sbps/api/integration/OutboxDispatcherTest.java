@@ -0,0 +1,187 @@
+package com.yh.sbps.api.integration;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yh.sbps.api.dto.DeviceNotificationDto;
+import com.yh.sbps.api.dto.SystemSettingsDto;
+import com.yh.sbps.api.dto.SystemStateDeltaDto;
+import com.yh.sbps.api.entity.OutboxMessage;
+import com.yh.sbps.api.entity.OutboxMessageType;
+import com.yh.sbps.api.repository.OutboxMessageRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("OutboxDispatcher Unit Tests")
+class OutboxDispatcherTest {
+
+  @Mock private OutboxMessageRepository outboxMessageRepository;
+  @Mock private DeviceServiceWS deviceServiceWS;
+  @Mock private PlatformTransactionManager transactionManager;
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private OutboxDispatcher dispatcher;
+
+  @BeforeEach
+  void setUp() {
+    dispatcher =
+        new OutboxDispatcher(
+            outboxMessageRepository,
+            deviceServiceWS,
+            objectMapper,
+            new TransactionTemplate(transactionManager),
+            Schedulers.immediate(),
+            100,
+            4,
+            Duration.ofSeconds(1),
+            Duration.ofSeconds(30),
+            new SimpleMeterRegistry());
+  }
+
+  @Test
+  @DisplayName("Should merge notifications per prefix and delete delivered messages")
+  void dispatch_DueMessages_SendsMergedAndDeletes() throws Exception {
+    // Arrange
+    OutboxMessage unsubscribe = new OutboxMessage("a/plug", OutboxMessageType.UNSUBSCRIBE, null);
+    OutboxMessage subscribe =
+        new OutboxMessage("a/plug", OutboxMessageType.SUBSCRIBE, "{\"mqttPrefix\":\"a/plug\"}");
+    OutboxMessage delta = deltaMessage("b/monitor", 3);
+    givenDue(List.of(unsubscribe, subscribe, delta));
+    when(deviceServiceWS.sendNotifications(any())).thenReturn(Mono.empty());
+    when(deviceServiceWS.pushStateDeltas(any())).thenReturn(Mono.empty());
+
+    // Act
+    dispatcher.poll().block();
+
+    // Assert
+    verify(deviceServiceWS)
+        .sendNotifications(
+            argThat(
+                batch ->
+                    batch.size() == 1
+                        && batch.getFirst().getType() == DeviceNotificationDto.Type.SUBSCRIBE));
+    verify(deviceServiceWS)
+        .pushStateDeltas(
+            argThat(batch -> batch.size() == 1 && batch.getFirst().getSequence() == 3));
+    verify(outboxMessageRepository).deleteAllInBatch(List.of(unsubscribe, subscribe));
+    verify(outboxMessageRepository).deleteAllInBatch(List.of(delta));
+    // Saved once, when claimed
+    verify(outboxMessageRepository).saveAll(List.of(unsubscribe, subscribe, delta));
+  }
+
+  @Test
+  @DisplayName("Should back off a prefix whose delivery failed")
+  void dispatch_DeliveryFails_SchedulesRetryWithBackoff() throws Exception {
+    // Arrange
+    OutboxMessage delta = deltaMessage("b/monitor", 1);
+    givenDue(List.of(delta));
+    when(deviceServiceWS.pushStateDeltas(any()))
+        .thenReturn(
+            Mono.error(
+                WebClientResponseException.create(
+                    HttpStatus.SERVICE_UNAVAILABLE.value(), "Unavailable", null, null, null)));
+    Instant before = Instant.now();
+
+    // Act
+    dispatcher.poll().block();
+
+    // Assert
+    assertEquals(1, delta.getAttempts());
+    assertFalse(delta.getNextAttemptAt().isBefore(before.plusSeconds(1)));
+    assertNotNull(delta.getLastError());
+    // Saved when claimed, then again with the retry time
+    verify(outboxMessageRepository, times(2)).saveAll(List.of(delta));
+    verify(outboxMessageRepository, never()).deleteAllInBatch(any());
+  }
+
+  @Test
+  @DisplayName("Should fall back to a state refresh when deltas are not supported")
+  void dispatch_DeltaEndpointMissing_SendsStateRefresh() throws Exception {
+    // Arrange
+    OutboxMessage delta = deltaMessage("b/monitor", 1);
+    givenDue(List.of(delta));
+    when(deviceServiceWS.pushStateDeltas(any()))
+        .thenReturn(
+            Mono.error(
+                WebClientResponseException.create(
+                    HttpStatus.NOT_FOUND.value(), "Not Found", null, null, null)));
+    when(deviceServiceWS.sendNotifications(any())).thenReturn(Mono.empty());
+
+    // Act
+    dispatcher.poll().block();
+
+    // Assert
+    verify(deviceServiceWS)
+        .sendNotifications(
+            argThat(
+                batch ->
+                    batch.size() == 1
+                        && batch.getFirst().getType()
+                            == DeviceNotificationDto.Type.REFRESH_STATE));
+    verify(outboxMessageRepository).deleteAllInBatch(List.of(delta));
+  }
+
+  @Test
+  @DisplayName("Should hold back a prefix that has an older message waiting")
+  void dispatch_OlderMessageWaiting_SkipsPrefix() throws Exception {
+    // Arrange
+    OutboxMessage blocked = deltaMessage("a/plug", 2);
+    OutboxMessage delta = deltaMessage("b/monitor", 1);
+    givenDue(List.of(blocked, delta));
+    when(outboxMessageRepository.findBlockedPrefixes(any(), any(), any()))
+        .thenReturn(List.of("a/plug"));
+    when(deviceServiceWS.pushStateDeltas(any())).thenReturn(Mono.empty());
+    Instant before = Instant.now();
+
+    // Act
+    dispatcher.poll().block();
+
+    // Assert
+    verify(deviceServiceWS)
+        .pushStateDeltas(argThat(batch -> batch.getFirst().getMqttPrefix().equals("b/monitor")));
+    verify(deviceServiceWS, times(1)).pushStateDeltas(any());
+    verify(outboxMessageRepository).saveAll(List.of(delta));
+    assertFalse(blocked.getNextAttemptAt().isAfter(before));
+  }
+
+  @Test
+  @DisplayName("Should double the backoff per attempt up to the maximum")
+  void backoff_GrowsExponentiallyAndIsCapped() {
+    assertEquals(Duration.ofSeconds(1), dispatcher.backoff(1));
+    assertEquals(Duration.ofSeconds(8), dispatcher.backoff(4));
+    assertEquals(Duration.ofSeconds(30), dispatcher.backoff(10));
+  }
+
+  private void givenDue(List<OutboxMessage> messages) {
+    when(outboxMessageRepository.findByNextAttemptAtLessThanEqualOrderByIdAsc(any(), any()))
+        .thenReturn(messages);
+    lenient()
+        .when(outboxMessageRepository.findBlockedPrefixes(any(), any(), any()))
+        .thenReturn(List.of());
+    when(outboxMessageRepository.findFirstByOrderByIdAsc()).thenReturn(Optional.empty());
+  }
+
+  private OutboxMessage deltaMessage(String mqttPrefix, long sequence) throws Exception {
+    SystemStateDeltaDto delta =
+        SystemStateDeltaDto.settingsChanged(mqttPrefix, "epoch", sequence, new SystemSettingsDto());
+    return new OutboxMessage(
+        mqttPrefix, OutboxMessageType.STATE_DELTA, objectMapper.writeValueAsString(delta));
+  }
+}
@@ -0,0 +1,140 @@
+package com.yh.sbps.api.integration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+
+@DisplayName("RequestHedger Unit Tests")
+class RequestHedgerTest {
+
+  private SimpleMeterRegistry meterRegistry;
+
+  @BeforeEach
+  void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+  }
+
+  @Test
+  @DisplayName("Should call the upstream exactly once when hedging is disabled")
+  void hedge_Disabled_SingleCall() {
+    // Arrange
+    RequestHedger hedger =
+        new RequestHedger(false, 0.95, Duration.ofMillis(10), 1.0, meterRegistry);
+    AtomicInteger subscriptions = new AtomicInteger();
+
+    // Act
+    String result =
+        hedger.hedge(() -> Mono.fromSupplier(() -> "ok-" + subscriptions.incrementAndGet()))
+            .block();
+
+    // Assert
+    assertEquals("ok-1", result);
+    assertEquals(1, subscriptions.get());
+  }
+
+  @Test
+  @DisplayName("Should answer from the hedge when the original call is slow")
+  void hedge_SlowPrimary_HedgeWins() {
+    // Arrange
+    RequestHedger hedger = warmedUp(1.0);
+    AtomicInteger subscriptions = new AtomicInteger();
+    Supplier<Mono<String>> call =
+        () ->
+            Mono.defer(
+                () ->
+                    subscriptions.incrementAndGet() == 1
+                        ? Mono.delay(Duration.ofSeconds(5)).thenReturn("slow")
+                        : Mono.just("fast"));
+
+    // Act
+    String result = hedger.hedge(call).block(Duration.ofSeconds(2));
+
+    // Assert
+    assertEquals("fast", result);
+    assertEquals(2, subscriptions.get());
+    assertEquals(1.0, meterRegistry.get("sbps.device.hedge.wins").counter().count());
+  }
+
+  @Test
+  @DisplayName("Should not hedge once the extra-load budget is spent")
+  void hedge_BudgetExhausted_WaitsForPrimary() {
+    // Arrange
+    RequestHedger hedger = warmedUp(0.0);
+    AtomicInteger subscriptions = new AtomicInteger();
+    Supplier<Mono<String>> call =
+        () ->
+            Mono.defer(
+                () -> {
+                  subscriptions.incrementAndGet();
+                  return Mono.delay(Duration.ofMillis(100)).thenReturn("primary");
+                });
+
+    // Act
+    String result = hedger.hedge(call).block(Duration.ofSeconds(2));
+
+    // Assert
+    assertEquals("primary", result);
+    assertEquals(1, subscriptions.get());
+    assertEquals(
+        1.0,
+        meterRegistry
+            .get("sbps.device.hedges")
+            .tag("result", "budget_exhausted")
+            .counter()
+            .count());
+  }
+
+  @Test
+  @DisplayName("Should not lower the hedge delay while hedges keep beating slow calls")
+  void hedge_HedgeWinsRepeatedly_DelayDoesNotFall() {
+    // Arrange
+    RequestHedger hedger =
+        new RequestHedger(true, 0.95, Duration.ofMillis(1), 1.0, meterRegistry);
+    // 60 instant and 4 slow calls put the 95th percentile, and so the delay, at the slow ones
+    for (int i = 0; i < 64; i++) {
+      Mono<String> warmUp =
+          i % 16 == 0 ? Mono.delay(Duration.ofMillis(40)).thenReturn("slow") : Mono.just("fast");
+      hedger.hedge(() -> warmUp).block();
+    }
+    double initialDelay = hedgeDelayMillis();
+    AtomicInteger subscriptions = new AtomicInteger();
+    Supplier<Mono<String>> call =
+        () ->
+            Mono.defer(
+                () ->
+                    subscriptions.incrementAndGet() % 2 == 1
+                        ? Mono.delay(Duration.ofSeconds(5)).thenReturn("slow")
+                        : Mono.just("fast"));
+
+    // Act
+    for (int i = 0; i < 32; i++) {
+      assertEquals("fast", hedger.hedge(call).block(Duration.ofSeconds(2)));
+    }
+
+    // Assert
+    assertEquals(32.0, meterRegistry.get("sbps.device.hedge.wins").counter().count());
+    assertTrue(initialDelay >= 40, "warm-up should set the delay from the slow calls");
+    assertTrue(hedgeDelayMillis() >= initialDelay);
+  }
+
+  private double hedgeDelayMillis() {
+    return meterRegistry.get("sbps.device.hedge.delay").gauge().value();
+  }
+
+  // Enough fast calls to establish the hedge delay; it then sits at the 10 ms minimum
+  private RequestHedger warmedUp(double maxExtraLoad) {
+    RequestHedger hedger =
+        new RequestHedger(true, 0.95, Duration.ofMillis(10), maxExtraLoad, meterRegistry);
+    for (int i = 0; i < 64; i++) {
+      hedger.hedge(() -> Mono.just("warm-up")).block();
+    }
+    return hedger;
+  }
+}
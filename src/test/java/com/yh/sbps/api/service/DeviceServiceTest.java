@@ -11,9 +11,10 @@ import com.yh.sbps.api.entity.DeviceType;
 import com.yh.sbps.api.entity.Role;
 import com.yh.sbps.api.entity.SystemSettings;
 import com.yh.sbps.api.entity.User;
-import com.yh.sbps.api.integration.DeviceServiceWS;
+import com.yh.sbps.api.dto.SystemStateDeltaDto;
 import com.yh.sbps.api.repository.DeviceRepository;
 import com.yh.sbps.api.repository.SystemSettingsRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import jakarta.persistence.EntityNotFoundException;
 import java.util.Arrays;
 import java.util.Collections;
@@ -34,7 +35,7 @@ class DeviceServiceTest {
 
   @Mock private SystemSettingsRepository systemSettingsRepository;
 
-  @Mock private DeviceServiceWS deviceServiceWS;
+  @Mock private DeviceNotificationOutbox deviceNotificationOutbox;
 
   private DeviceService deviceService;
 
@@ -45,7 +46,12 @@ class DeviceServiceTest {
 
   @BeforeEach
   void setUp() {
-    deviceService = new DeviceService(deviceRepository, systemSettingsRepository, deviceServiceWS);
+    deviceService =
+        new DeviceService(
+            deviceRepository,
+            systemSettingsRepository,
+            new SystemStateCache(new SimpleMeterRegistry()),
+            deviceNotificationOutbox);
 
     testUser = new User("test@example.com", "test", "password", Role.USER);
     testUser.setId(1L);
@@ -150,7 +156,6 @@ class DeviceServiceTest {
     when(deviceRepository.save(any(Device.class))).thenReturn(newDevice);
     when(deviceRepository.existsByUserAndDeviceType(eq(testUser), eq(DeviceType.POWER_MONITOR)))
         .thenReturn(false);
-    doNothing().when(deviceServiceWS).notifyDeviceUpdate(newDevice);
 
     // Act
     Device result = deviceService.saveDevice(deviceDto, testUser);
@@ -158,7 +163,7 @@ class DeviceServiceTest {
     // Assert
     assertNotNull(result);
     verify(deviceRepository).save(any(Device.class));
-    verify(deviceServiceWS).notifyDeviceUpdate(any(Device.class));
+    verify(deviceNotificationOutbox).subscribe(any(Device.class));
   }
 
   @Test
@@ -174,7 +179,6 @@ class DeviceServiceTest {
 
     when(deviceRepository.findById(1L)).thenReturn(Optional.of(testDevice));
     when(deviceRepository.save(any(Device.class))).thenReturn(testDevice);
-    doNothing().when(deviceServiceWS).notifyStateRefresh("updated/prefix");
 
     // Act
     Device result = deviceService.updateDevice(1L, updatedDetails, testUser);
@@ -187,7 +191,14 @@ class DeviceServiceTest {
     assertEquals(2, testDevice.getPriority());
     assertEquals(2000, testDevice.getWattage());
     verify(deviceRepository).save(testDevice);
-    verify(deviceServiceWS).notifyStateRefresh("updated/prefix");
+    verify(deviceNotificationOutbox)
+        .stateDelta(
+            argThat(
+                delta ->
+                    delta.getType() == SystemStateDeltaDto.Type.DEVICE_UPSERTED
+                        && delta.getMqttPrefix().equals("updated/prefix")
+                        && delta.getSequence() == 1
+                        && delta.getDevice().getName().equals("Updated Name")));
   }
 
   @Test
@@ -201,7 +212,7 @@ class DeviceServiceTest {
         RuntimeException.class,
         () -> deviceService.updateDevice(999L, new DeviceRequestDto(), testUser));
     verify(deviceRepository, never()).save(any());
-    verify(deviceServiceWS, never()).notifyDeviceUpdate(any());
+    verify(deviceNotificationOutbox, never()).subscribe(any());
   }
 
   @Test
@@ -218,7 +229,54 @@ class DeviceServiceTest {
         RuntimeException.class,
         () -> deviceService.updateDevice(1L, new DeviceRequestDto(), otherUser));
     verify(deviceRepository, never()).save(any());
-    verify(deviceServiceWS, never()).notifyDeviceUpdate(any());
+    verify(deviceNotificationOutbox, never()).subscribe(any());
+  }
+
+  @Test
+  @DisplayName("Should answer repeated ownership checks from the index")
+  void isDeviceOwnedBy_RepeatedChecks_QueriesOwnerOnce() {
+    // Arrange
+    when(deviceRepository.findOwnerIdById(1L)).thenReturn(Optional.of(1L));
+
+    // Act
+    boolean owner = deviceService.isDeviceOwnedBy(1L, 1L);
+    boolean ownerAgain = deviceService.isDeviceOwnedBy(1L, 1L);
+    boolean stranger = deviceService.isDeviceOwnedBy(1L, 99L);
+
+    // Assert
+    assertTrue(owner);
+    assertTrue(ownerAgain);
+    assertFalse(stranger);
+    verify(deviceRepository, times(1)).findOwnerIdById(1L);
+    verify(deviceRepository, never()).findById(any());
+  }
+
+  @Test
+  @DisplayName("Should deny ownership of unknown devices")
+  void isDeviceOwnedBy_UnknownDevice_ReturnsFalse() {
+    // Arrange
+    when(deviceRepository.findOwnerIdById(999L)).thenReturn(Optional.empty());
+
+    // Act & Assert
+    assertFalse(deviceService.isDeviceOwnedBy(999L, 1L));
+  }
+
+  @Test
+  @DisplayName("Should drop a deleted device from the ownership index")
+  void isDeviceOwnedBy_AfterDelete_QueriesAgain() {
+    // Arrange
+    when(deviceRepository.findOwnerIdById(1L))
+        .thenReturn(Optional.of(1L))
+        .thenReturn(Optional.empty());
+    when(deviceRepository.findById(1L)).thenReturn(Optional.of(testDevice));
+    assertTrue(deviceService.isDeviceOwnedBy(1L, 1L));
+
+    // Act
+    deviceService.deleteDevice(1L, testUser);
+
+    // Assert
+    assertFalse(deviceService.isDeviceOwnedBy(1L, 1L));
+    verify(deviceRepository, times(2)).findOwnerIdById(1L);
   }
 
   @Test
@@ -236,6 +294,32 @@ class DeviceServiceTest {
     verify(deviceRepository).deleteById(1L);
   }
 
+  @Test
+  @DisplayName("Should publish a removal delta to the user's monitor on delete")
+  void deleteDevice_WithMonitor_PublishesRemovalDelta() {
+    // Arrange
+    Device monitor = new Device();
+    monitor.setId(5L);
+    monitor.setMqttPrefix("monitor/prefix");
+    monitor.setDeviceType(DeviceType.POWER_MONITOR);
+    monitor.setUser(testUser);
+    when(deviceRepository.findById(1L)).thenReturn(Optional.of(testDevice));
+    when(deviceRepository.findAllByUser(testUser)).thenReturn(List.of(testDevice, monitor));
+
+    // Act
+    deviceService.deleteDevice(1L, testUser);
+
+    // Assert
+    verify(deviceNotificationOutbox)
+        .stateDelta(
+            argThat(
+                delta ->
+                    delta.getType() == SystemStateDeltaDto.Type.DEVICE_REMOVED
+                        && delta.getMqttPrefix().equals("monitor/prefix")
+                        && delta.getDeviceId() == 1L
+                        && delta.getSequence() == 1));
+  }
+
   @Test
   @DisplayName("Should throw exception when deleting another user's device")
   void deleteDevice_OtherUsersDevice_ThrowsException() {
@@ -277,6 +361,49 @@ class DeviceServiceTest {
     verify(deviceRepository).findAllByUser(testUser);
   }
 
+  @Test
+  @DisplayName("Should serve repeated system state reads from the snapshot cache")
+  void getSystemStateSnapshot_RepeatedReads_QueriesOnce() {
+    // Arrange
+    when(deviceRepository.findByMqttPrefix("test/device")).thenReturn(Optional.of(testDevice));
+    when(systemSettingsRepository.findByUser(testUser)).thenReturn(Optional.of(testSettings));
+    when(deviceRepository.findAllByUser(testUser)).thenReturn(List.of(testDevice));
+
+    // Act
+    SystemStateCache.Snapshot first = deviceService.getSystemStateSnapshot("test/device");
+    SystemStateCache.Snapshot second = deviceService.getSystemStateSnapshot("test/device");
+
+    // Assert
+    assertSame(first, second);
+    assertNotNull(first.etag());
+    verify(deviceRepository, times(1)).findByMqttPrefix("test/device");
+    verify(systemSettingsRepository, times(1)).findByUser(testUser);
+    verify(deviceRepository, times(1)).findAllByUser(testUser);
+  }
+
+  @Test
+  @DisplayName("Should rebuild the system state snapshot after a device change")
+  void getSystemStateSnapshot_AfterDelete_RebuildsWithNewEtag() {
+    // Arrange
+    when(deviceRepository.findByMqttPrefix("test/device")).thenReturn(Optional.of(testDevice));
+    when(systemSettingsRepository.findByUser(testUser)).thenReturn(Optional.of(testSettings));
+    when(deviceRepository.findAllByUser(testUser))
+        .thenReturn(List.of(testDevice))
+        .thenReturn(List.of(testDevice))
+        .thenReturn(Collections.emptyList());
+    when(deviceRepository.findById(1L)).thenReturn(Optional.of(testDevice));
+    SystemStateCache.Snapshot before = deviceService.getSystemStateSnapshot("test/device");
+
+    // Act
+    deviceService.deleteDevice(1L, testUser);
+    SystemStateCache.Snapshot after = deviceService.getSystemStateSnapshot("test/device");
+
+    // Assert
+    assertNotEquals(before.etag(), after.etag());
+    assertEquals(1, before.state().getDevices().size());
+    assertTrue(after.state().getDevices().isEmpty());
+  }
+
   @Test
   @DisplayName("Should throw exception when device not found by MQTT prefix")
   void getSystemStateByMqttPrefix_InvalidPrefix_ThrowsException() {
@@ -0,0 +1,214 @@
+package com.yh.sbps.api.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yh.sbps.api.dto.DeviceStatusDto;
+import com.yh.sbps.api.dto.DeviceStatusUpdateDto;
+import com.yh.sbps.api.integration.DeviceServiceWS;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("DeviceStatusService Unit Tests")
+class DeviceStatusServiceTest {
+
+  @Mock private DeviceServiceWS deviceServiceWS;
+  private DeviceStatusService deviceStatusService;
+  private JsonNode statusJson;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    deviceStatusService =
+        new DeviceStatusService(
+            deviceServiceWS, Duration.ofMinutes(1), 10_000, new SimpleMeterRegistry());
+    statusJson = new ObjectMapper().readTree("{\"power\": 100}");
+  }
+
+  @Test
+  @DisplayName("Should serve pushed statuses without calling the device service")
+  void getStatuses_AllPushed_ServedLocally() {
+    // Arrange
+    deviceStatusService.recordUpdate(new DeviceStatusUpdateDto(1L, "test", true, statusJson));
+
+    // Act
+    Map<Long, DeviceStatusDto> result = deviceStatusService.getStatuses(List.of(1L)).block();
+
+    // Assert
+    assertNotNull(result);
+    assertTrue(result.get(1L).isOnline());
+    assertEquals(100, result.get(1L).getStatusJson().get("power").asInt());
+    verifyNoInteractions(deviceServiceWS);
+  }
+
+  @Test
+  @DisplayName("Should fetch only the devices missing from the local store")
+  void getStatuses_PartiallyPushed_FetchesMissingOnly() {
+    // Arrange
+    deviceStatusService.recordUpdate(new DeviceStatusUpdateDto(1L, "test", true, statusJson));
+    when(deviceServiceWS.getAllStatusesAsync(List.of(2L)))
+        .thenReturn(Mono.just(Map.of(2L, new DeviceStatusDto(false, null))));
+
+    // Act
+    Map<Long, DeviceStatusDto> result = deviceStatusService.getStatuses(List.of(1L, 2L)).block();
+
+    // Assert
+    assertNotNull(result);
+    assertEquals(2, result.size());
+    assertFalse(result.get(2L).isOnline());
+    verify(deviceServiceWS).getAllStatusesAsync(List.of(2L));
+  }
+
+  @Test
+  @DisplayName("Should fall back to the device service when the pushed status is stale")
+  void getOnline_StaleEntry_CallsDeviceService() {
+    // Arrange
+    deviceStatusService =
+        new DeviceStatusService(deviceServiceWS, Duration.ZERO, 10_000, new SimpleMeterRegistry());
+    deviceStatusService.recordUpdate(new DeviceStatusUpdateDto(1L, "test", true, statusJson));
+    when(deviceServiceWS.getOnlineAsync(1L)).thenReturn(Mono.just(ResponseEntity.ok(false)));
+
+    // Act
+    ResponseEntity<Boolean> response = deviceStatusService.getOnline(1L).block();
+
+    // Assert
+    assertNotNull(response);
+    assertFalse(response.getBody());
+    verify(deviceServiceWS).getOnlineAsync(1L);
+  }
+
+  @Test
+  @DisplayName("Should keep the previous status JSON when an update only changes online flag")
+  void recordUpdate_OnlineOnly_KeepsPreviousStatusJson() {
+    // Arrange
+    deviceStatusService.recordUpdate(new DeviceStatusUpdateDto(1L, "test", true, statusJson));
+    deviceStatusService.recordUpdate(new DeviceStatusUpdateDto(1L, "test", null, null));
+
+    // Act
+    ResponseEntity<JsonNode> response = deviceStatusService.getStatus(1L).block();
+
+    // Assert
+    assertNotNull(response);
+    assertEquals(statusJson, response.getBody());
+    verifyNoInteractions(deviceServiceWS);
+  }
+
+  @Test
+  @DisplayName("Should ask the device service when no push has reported the online flag yet")
+  void getOnline_StatusOnlyPush_CallsDeviceService() {
+    // Arrange
+    deviceStatusService.recordUpdate(new DeviceStatusUpdateDto(1L, "test", null, statusJson));
+    when(deviceServiceWS.getOnlineAsync(1L)).thenReturn(Mono.just(ResponseEntity.ok(true)));
+
+    // Act
+    ResponseEntity<Boolean> response = deviceStatusService.getOnline(1L).block();
+
+    // Assert
+    assertNotNull(response);
+    assertTrue(response.getBody());
+    verify(deviceServiceWS).getOnlineAsync(1L);
+  }
+
+  @Test
+  @DisplayName("Should not refresh a stale online flag when a push only carries status JSON")
+  void getOnline_StatusOnlyPushAfterStaleOnline_CallsDeviceService() throws Exception {
+    // Arrange
+    deviceStatusService =
+        new DeviceStatusService(
+            deviceServiceWS, Duration.ofMillis(50), 10_000, new SimpleMeterRegistry());
+    deviceStatusService.recordUpdate(new DeviceStatusUpdateDto(1L, "test", true, statusJson));
+    Thread.sleep(100);
+    deviceStatusService.recordUpdate(new DeviceStatusUpdateDto(1L, "test", null, statusJson));
+    when(deviceServiceWS.getOnlineAsync(1L)).thenReturn(Mono.just(ResponseEntity.ok(false)));
+
+    // Act
+    ResponseEntity<Boolean> response = deviceStatusService.getOnline(1L).block();
+
+    // Assert
+    assertNotNull(response);
+    assertFalse(response.getBody());
+    verify(deviceServiceWS).getOnlineAsync(1L);
+  }
+
+  @Test
+  @DisplayName("Should serve the last known status, marked stale, when the device service fails")
+  void getStatus_DeviceServiceUnavailable_ServesStaleStatus() {
+    // Arrange
+    deviceStatusService =
+        new DeviceStatusService(deviceServiceWS, Duration.ZERO, 10_000, new SimpleMeterRegistry());
+    deviceStatusService.recordUpdate(new DeviceStatusUpdateDto(1L, "test", true, statusJson));
+    when(deviceServiceWS.getStatusAsync(1L))
+        .thenReturn(Mono.error(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE)));
+
+    // Act
+    ResponseEntity<JsonNode> response = deviceStatusService.getStatus(1L).block();
+
+    // Assert
+    assertNotNull(response);
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals(statusJson, response.getBody());
+    assertNotNull(response.getHeaders().getFirst(HttpHeaders.WARNING));
+  }
+
+  @Test
+  @DisplayName("Should propagate the failure when no status was ever known")
+  void getOnline_DeviceServiceUnavailableNoStatus_EmitsError() {
+    // Arrange
+    when(deviceServiceWS.getOnlineAsync(1L))
+        .thenReturn(Mono.error(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE)));
+
+    // Act & Assert
+    assertThrows(ResponseStatusException.class, () -> deviceStatusService.getOnline(1L).block());
+  }
+
+  @Test
+  @DisplayName("Should fill all-statuses from stale entries when the device service fails")
+  void getStatuses_DeviceServiceUnavailable_ServesStaleStatuses() {
+    // Arrange
+    deviceStatusService =
+        new DeviceStatusService(deviceServiceWS, Duration.ZERO, 10_000, new SimpleMeterRegistry());
+    deviceStatusService.recordUpdate(new DeviceStatusUpdateDto(1L, "test", true, statusJson));
+    when(deviceServiceWS.getAllStatusesAsync(List.of(1L)))
+        .thenReturn(Mono.error(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE)));
+
+    // Act
+    Map<Long, DeviceStatusDto> result = deviceStatusService.getStatuses(List.of(1L)).block();
+
+    // Assert
+    assertNotNull(result);
+    assertTrue(result.get(1L).isOnline());
+  }
+
+  @Test
+  @DisplayName("Should count a miss when a fresh offline entry still goes to the device service")
+  void getStatus_FreshOfflineEntry_CountsMiss() {
+    // Arrange
+    SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    deviceStatusService =
+        new DeviceStatusService(deviceServiceWS, Duration.ofMinutes(1), 10_000, meterRegistry);
+    deviceStatusService.recordUpdate(new DeviceStatusUpdateDto(1L, "test", false, statusJson));
+    when(deviceServiceWS.getStatusAsync(1L)).thenReturn(Mono.just(ResponseEntity.ok(statusJson)));
+
+    // Act
+    deviceStatusService.getStatus(1L).block();
+
+    // Assert
+    assertEquals(0, meterRegistry.counter("sbps.device.status_cache", "result", "hit").count());
+    assertEquals(1, meterRegistry.counter("sbps.device.status_cache", "result", "miss").count());
+  }
+}
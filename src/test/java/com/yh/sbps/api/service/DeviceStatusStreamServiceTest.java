@@ -0,0 +1,137 @@
+package com.yh.sbps.api.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.codec.ServerSentEvent;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+@DisplayName("DeviceStatusStreamService Unit Tests")
+class DeviceStatusStreamServiceTest {
+
+  private SimpleMeterRegistry meterRegistry;
+  private DeviceStatusStreamService streamService;
+  private AtomicInteger snapshots;
+  private Supplier<Mono<?>> snapshot;
+
+  @BeforeEach
+  void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    streamService = streamService(Duration.ofMinutes(1));
+    snapshots = new AtomicInteger();
+    snapshot = () -> Mono.fromSupplier(() -> Map.of("snapshot", snapshots.incrementAndGet()));
+  }
+
+  @Test
+  @DisplayName("Should send a snapshot first and then live updates to a new client")
+  void events_NewClient_SnapshotThenUpdates() {
+    // Act & Assert
+    StepVerifier.create(streamService.events("alice", null, snapshot))
+        .assertNext(event -> assertEquals("snapshot", event.event()))
+        .then(() -> streamService.publish("alice", "update-1"))
+        .assertNext(
+            event -> {
+              assertEquals("status", event.event());
+              assertEquals("update-1", event.data());
+            })
+        .thenCancel()
+        .verify();
+  }
+
+  @Test
+  @DisplayName("Should replay only missed updates to a client resuming with Last-Event-ID")
+  void events_ResumableLastEventId_ReplaysMissedUpdates() {
+    // Arrange
+    streamService.publish("alice", "update-1");
+    String seen = snapshotEventId();
+    streamService.publish("alice", "update-2");
+
+    // Act & Assert
+    StepVerifier.create(streamService.events("alice", seen, snapshot))
+        .assertNext(event -> assertEquals("update-2", event.data()))
+        .thenCancel()
+        .verify();
+    assertEquals(1, snapshots.get());
+  }
+
+  @Test
+  @DisplayName("Should fall back to a snapshot once the missed updates left the buffer")
+  void events_EvictedLastEventId_SendsSnapshot() {
+    // Arrange
+    streamService.publish("alice", "update-1");
+    String seen = snapshotEventId();
+    for (int i = 2; i <= 6; i++) {
+      streamService.publish("alice", "update-" + i);
+    }
+
+    // Act & Assert
+    StepVerifier.create(streamService.events("alice", seen, snapshot))
+        .assertNext(event -> assertEquals("snapshot", event.event()))
+        .thenCancel()
+        .verify();
+  }
+
+  @Test
+  @DisplayName("Should ignore event ids issued by another process")
+  void events_ForeignLastEventId_SendsSnapshot() {
+    // Act & Assert
+    StepVerifier.create(streamService.events("alice", "other-7", snapshot))
+        .assertNext(event -> assertEquals("snapshot", event.event()))
+        .thenCancel()
+        .verify();
+  }
+
+  @Test
+  @DisplayName("Should not buffer updates for a user that never opened a stream")
+  void publish_NoSubscriberEver_NothingBuffered() {
+    // Act
+    streamService.publish("bob", "update-1");
+
+    // Assert
+    assertEquals(0, meterRegistry.get("sbps.status_stream.users").gauge().value());
+  }
+
+  @Test
+  @DisplayName("Should drop a user's buffer once the last client left longer than the window")
+  void events_ReconnectAfterResumeWindow_SendsSnapshot() throws Exception {
+    // Arrange
+    streamService = streamService(Duration.ofMillis(50));
+    String seen = snapshotEventId();
+    Thread.sleep(100);
+    streamService.publish("alice", "update-1");
+
+    // Act & Assert
+    StepVerifier.create(streamService.events("alice", seen, snapshot))
+        .assertNext(event -> assertEquals("snapshot", event.event()))
+        .thenCancel()
+        .verify();
+    assertEquals(2, snapshots.get());
+  }
+
+  private DeviceStatusStreamService streamService(Duration resumeWindow) {
+    return new DeviceStatusStreamService(
+        3,
+        16,
+        Duration.ofSeconds(15),
+        Duration.ofMinutes(1),
+        resumeWindow,
+        Schedulers.immediate(),
+        meterRegistry);
+  }
+
+  // Id of a snapshot taken now, i.e. what a client that connected at this point has seen
+  private String snapshotEventId() {
+    ServerSentEvent<?> event = streamService.events("alice", null, snapshot).blockFirst();
+    assertNotNull(event);
+    return event.id();
+  }
+}
@@ -0,0 +1,79 @@
+package com.yh.sbps.api.service;
+
+import com.yh.sbps.api.entity.Role;
+import com.yh.sbps.api.entity.User;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Compares the per-request cost of the previous filter path (three full parses, each rebuilding the
+ * key and parser) with the cached single-parse path. Run with {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+@DisplayName("JwtService Benchmark")
+class JwtServiceBenchmark {
+
+  private static final String SECRET = "test-secret-key-for-testing-purposes-only-minimum-256-bits";
+  private static final int WARMUP = 5_000;
+  private static final int ITERATIONS = 50_000;
+
+  /** Written with every measured result so the JIT cannot drop the measured calls. */
+  private static volatile boolean blackhole;
+
+  @Test
+  @DisplayName("Reports the per-request cost of re-parsing the token and of the cached lookup")
+  void perRequestCost_CachedVsLegacy() {
+    JwtService jwtService = new JwtService(SECRET, 10_000, new SimpleMeterRegistry());
+    User user = new User("bench@example.com", "password", "bench", Role.USER);
+    String token = jwtService.generateToken(user);
+
+    long legacyNanos = measure(() -> legacyFilterPath(token, user));
+    long cachedNanos = measure(() -> cachedFilterPath(jwtService, token, user));
+
+    System.out.printf(
+        "JWT filter path: legacy %d ns/op, cached %d ns/op (%.1fx)%n",
+        legacyNanos, cachedNanos, (double) legacyNanos / Math.max(1, cachedNanos));
+  }
+
+  private static boolean legacyFilterPath(String token, User user) {
+    String username = legacyParse(token).getSubject();
+    String validatedUsername = legacyParse(token).getSubject();
+    boolean expired = legacyParse(token).getExpiration().before(new Date());
+    return username.equals(user.getUsername()) && validatedUsername.equals(username) && !expired;
+  }
+
+  private static Claims legacyParse(String token) {
+    return Jwts.parser()
+        .verifyWith(Keys.hmacShaKeyFor(SECRET.getBytes(StandardCharsets.UTF_8)))
+        .build()
+        .parseSignedClaims(token)
+        .getPayload();
+  }
+
+  private static boolean cachedFilterPath(JwtService jwtService, String token, User user) {
+    Claims claims = jwtService.parseClaims(token);
+    return jwtService.isTokenValid(claims, user);
+  }
+
+  private static long measure(BooleanSupplier op) {
+    boolean sink = false;
+    for (int i = 0; i < WARMUP; i++) {
+      sink ^= op.getAsBoolean();
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      sink ^= op.getAsBoolean();
+    }
+    long elapsed = System.nanoTime() - start;
+    blackhole = sink;
+    return elapsed / ITERATIONS;
+  }
+}
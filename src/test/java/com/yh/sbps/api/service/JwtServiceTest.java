@@ -0,0 +1,98 @@
+package com.yh.sbps.api.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.yh.sbps.api.entity.Role;
+import com.yh.sbps.api.entity.User;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("JwtService Unit Tests")
+class JwtServiceTest {
+
+  private static final String SECRET = "test-secret-key-for-testing-purposes-only-minimum-256-bits";
+
+  private SimpleMeterRegistry meterRegistry;
+  private JwtService jwtService;
+  private User testUser;
+
+  @BeforeEach
+  void setUp() {
+    meterRegistry = new SimpleMeterRegistry();
+    jwtService = new JwtService(SECRET, 100, meterRegistry);
+
+    testUser = new User("test@example.com", "password", "test", Role.USER);
+    testUser.setId(1L);
+  }
+
+  @Test
+  @DisplayName("Should return claims of a generated token")
+  void parseClaims_GeneratedToken_ReturnsSubject() {
+    // Arrange
+    String token = jwtService.generateToken(testUser);
+
+    // Act
+    Claims claims = jwtService.parseClaims(token);
+
+    // Assert
+    assertEquals("test", claims.getSubject());
+    assertNotNull(claims.getExpiration());
+    assertTrue(jwtService.isTokenValid(claims, testUser));
+  }
+
+  @Test
+  @DisplayName("Should serve repeated parses of the same token from cache")
+  void parseClaims_SameTokenTwice_SecondCallIsCacheHit() {
+    // Arrange
+    String token = jwtService.generateToken(testUser);
+
+    // Act
+    jwtService.parseClaims(token);
+    jwtService.extractUsername(token);
+    jwtService.isTokenValid(token, testUser);
+
+    // Assert
+    assertEquals(1.0, cacheGets("miss"));
+    assertEquals(2.0, cacheGets("hit"));
+  }
+
+  @Test
+  @DisplayName("Should reject a token signed with another key")
+  void parseClaims_ForeignSignature_Throws() {
+    // Arrange
+    JwtService otherService =
+        new JwtService(
+            "another-secret-key-for-testing-purposes-only-minimum-256-bits",
+            100,
+            new SimpleMeterRegistry());
+    String foreignToken = otherService.generateToken(testUser);
+
+    // Act & Assert
+    assertThrows(JwtException.class, () -> jwtService.parseClaims(foreignToken));
+    assertEquals(0.0, cacheGets("hit"));
+  }
+
+  @Test
+  @DisplayName("Should not validate token for another user")
+  void isTokenValid_DifferentUser_ReturnsFalse() {
+    // Arrange
+    User otherUser = new User("other@example.com", "password", "other", Role.USER);
+    String token = jwtService.generateToken(testUser);
+
+    // Act & Assert
+    assertFalse(jwtService.isTokenValid(token, otherUser));
+  }
+
+  private double cacheGets(String result) {
+    return meterRegistry
+        .get("cache.gets")
+        .tag("cache", "jwt.claims")
+        .tag("result", result)
+        .functionCounter()
+        .count();
+  }
+}
@@ -0,0 +1,140 @@
+package com.yh.sbps.api.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import com.yh.sbps.api.entity.PushSubscription;
+import com.yh.sbps.api.repository.PushSubscriptionRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("PushDeliveryLedger Unit Tests")
+class PushDeliveryLedgerTest {
+
+  @Mock private PushSubscriptionRepository subscriptionRepository;
+  private PushDeliveryLedger ledger;
+
+  @BeforeEach
+  void setUp() {
+    ledger =
+        new PushDeliveryLedger(
+            subscriptionRepository, 3, Duration.ofDays(7), new SimpleMeterRegistry());
+  }
+
+  @Test
+  @DisplayName("Should delete all gone subscriptions in one statement")
+  void sweep_GoneSubscriptions_DeletedInBatch() {
+    // Arrange
+    ledger.recordGone(1L);
+    ledger.recordGone(2L);
+    ledger.recordFailure(2L);
+    when(subscriptionRepository.deleteAllByIdIn(any())).thenReturn(2);
+
+    // Act
+    ledger.sweep();
+
+    // Assert
+    verify(subscriptionRepository).deleteAllByIdIn(Set.of(1L, 2L));
+    verify(subscriptionRepository, never()).findAllById(any());
+  }
+
+  @Test
+  @DisplayName("Should disable a subscription after repeated transient failures")
+  void sweep_RepeatedFailures_Disabled() {
+    // Arrange
+    PushSubscription subscription = subscription(1L, 2);
+    when(subscriptionRepository.findAllById(Set.of(1L))).thenReturn(List.of(subscription));
+    ledger.recordFailure(1L);
+
+    // Act
+    ledger.sweep();
+
+    // Assert
+    assertEquals(3, subscription.getFailureCount());
+    assertNotNull(subscription.getLastFailureAt());
+    assertNotNull(subscription.getDisabledAt());
+    verify(subscriptionRepository).deleteAllDisabledBefore(any());
+  }
+
+  @Test
+  @DisplayName("Should reset the failure count after a successful delivery")
+  void sweep_Recovered_FailureCountReset() {
+    // Arrange
+    PushSubscription subscription = subscription(1L, 2);
+    when(subscriptionRepository.findAllById(Set.of(1L))).thenReturn(List.of(subscription));
+    ledger.recordSuccess(1L, true);
+
+    // Act
+    ledger.sweep();
+
+    // Assert
+    assertEquals(0, subscription.getFailureCount());
+    assertNull(subscription.getDisabledAt());
+  }
+
+  @Test
+  @DisplayName("Should reset the failure count when a success follows failures in the same sweep")
+  void sweep_FailuresThenSuccessInSameSweep_FailureCountReset() {
+    // Arrange
+    PushSubscription subscription = subscription(1L, 2);
+    when(subscriptionRepository.findAllById(Set.of(1L))).thenReturn(List.of(subscription));
+    ledger.recordFailure(1L);
+    ledger.recordFailure(1L);
+    ledger.recordSuccess(1L, false);
+
+    // Act
+    ledger.sweep();
+
+    // Assert
+    assertEquals(0, subscription.getFailureCount());
+    assertNull(subscription.getDisabledAt());
+  }
+
+  @Test
+  @DisplayName("Should count only the failures after a success in the same sweep")
+  void sweep_SuccessThenFailureInSameSweep_RunRestarted() {
+    // Arrange
+    PushSubscription subscription = subscription(1L, 2);
+    when(subscriptionRepository.findAllById(Set.of(1L))).thenReturn(List.of(subscription));
+    ledger.recordSuccess(1L, true);
+    ledger.recordFailure(1L);
+
+    // Act
+    ledger.sweep();
+
+    // Assert
+    assertEquals(1, subscription.getFailureCount());
+    assertNull(subscription.getDisabledAt());
+  }
+
+  @Test
+  @DisplayName("Should ignore successes of subscriptions without failures")
+  void sweep_SuccessWithoutFailures_NothingLoaded() {
+    // Arrange
+    ledger.recordSuccess(1L, false);
+
+    // Act
+    ledger.sweep();
+
+    // Assert
+    verify(subscriptionRepository, never()).findAllById(any());
+  }
+
+  private static PushSubscription subscription(long id, int failureCount) {
+    PushSubscription subscription =
+        new PushSubscription(null, "https://push.example/" + id, "p256dh", "auth");
+    subscription.setId(id);
+    subscription.setFailureCount(failureCount);
+    return subscription;
+  }
+}
@@ -0,0 +1,273 @@
+package com.yh.sbps.api.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yh.sbps.api.dto.BalancerActionDto;
+import com.yh.sbps.api.entity.Device;
+import com.yh.sbps.api.entity.PushSubscription;
+import com.yh.sbps.api.entity.Role;
+import com.yh.sbps.api.entity.User;
+import com.yh.sbps.api.repository.DeviceRepository;
+import com.yh.sbps.api.repository.PushSubscriptionRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.math.BigInteger;
+import java.security.KeyPairGenerator;
+import java.security.Security;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import nl.martijndwars.webpush.Notification;
+import nl.martijndwars.webpush.PushService;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("PushNotificationService Unit Tests")
+class PushNotificationServiceTest {
+
+  private static final long FCM_ID = 1L;
+  private static final long MOZILLA_ID = 2L;
+  private static final String FCM_ENDPOINT = "https://fcm.googleapis.com/fcm/send/abc";
+  private static final String MOZILLA_ENDPOINT =
+      "https://updates.push.services.mozilla.com/wpush/v2/def";
+
+  @Mock private PushSubscriptionRepository subscriptionRepository;
+  @Mock private DeviceRepository deviceRepository;
+  @Mock private PushService pushService;
+  @Mock private PushDeliveryLedger deliveryLedger;
+  @Mock private ScheduledExecutorService aggregationScheduler;
+  private final List<Runnable> queuedDeliveries = new ArrayList<>();
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private PushNotificationService pushNotificationService;
+  private User user;
+
+  @BeforeAll
+  static void registerProvider() {
+    Security.addProvider(new BouncyCastleProvider());
+  }
+
+  @BeforeEach
+  void setUp() {
+    pushNotificationService =
+        new PushNotificationService(
+            subscriptionRepository,
+            deviceRepository,
+            new ObjectMapper(),
+            deliveryLedger,
+            queuedDeliveries::add,
+            Duration.ofSeconds(10),
+            aggregationScheduler,
+            meterRegistry);
+    ReflectionTestUtils.setField(pushNotificationService, "pushService", pushService);
+    user = new User("test@example.com", "password", "test", Role.USER);
+  }
+
+  @Test
+  @DisplayName("Should return before any push endpoint is contacted and then send to all")
+  void sendNotificationToUser_TwoSubscriptions_DeliveredAsynchronously() throws Exception {
+    // Arrange
+    when(subscriptionRepository.findAllByUserAndDisabledAtIsNull(user))
+        .thenReturn(
+            List.of(
+                subscription(FCM_ID, FCM_ENDPOINT), subscription(MOZILLA_ID, MOZILLA_ENDPOINT)));
+    HttpResponse created = response(201);
+    when(pushService.send(any(Notification.class))).thenReturn(created);
+
+    // Act
+    pushNotificationService.sendNotificationToUser(user, "{\"title\":\"t\"}");
+
+    // Assert
+    verifyNoInteractions(pushService);
+    assertEquals(2, queuedDeliveries.size());
+    queuedDeliveries.forEach(Runnable::run);
+    verify(pushService, times(2)).send(any(Notification.class));
+    assertEquals(
+        1,
+        meterRegistry
+            .get("sbps.push.send")
+            .tags("host", "fcm", "outcome", "success")
+            .timer()
+            .count());
+  }
+
+  @Test
+  @DisplayName("Should record expired subscriptions per push service host and report them")
+  void sendNotificationToUser_SubscriptionGone_ReportedToLedger() throws Exception {
+    // Arrange
+    when(subscriptionRepository.findAllByUserAndDisabledAtIsNull(user))
+        .thenReturn(List.of(subscription(MOZILLA_ID, MOZILLA_ENDPOINT)));
+    HttpResponse gone = response(410);
+    when(pushService.send(any(Notification.class))).thenReturn(gone);
+
+    // Act
+    pushNotificationService.sendNotificationToUser(user, "{\"title\":\"t\"}");
+    queuedDeliveries.forEach(Runnable::run);
+
+    // Assert
+    assertEquals(
+        1,
+        meterRegistry
+            .get("sbps.push.send")
+            .tags("host", "mozilla", "outcome", "gone")
+            .timer()
+            .count());
+    verify(deliveryLedger).recordGone(MOZILLA_ID);
+  }
+
+  @Test
+  @DisplayName("Should report transient failures and recoveries to the ledger")
+  void sendNotificationToUser_TransientFailure_RecordedInLedger() throws Exception {
+    // Arrange
+    PushSubscription recovering = subscription(FCM_ID, FCM_ENDPOINT);
+    recovering.setFailureCount(2);
+    when(subscriptionRepository.findAllByUserAndDisabledAtIsNull(user))
+        .thenReturn(List.of(recovering, subscription(MOZILLA_ID, MOZILLA_ENDPOINT)));
+    HttpResponse created = response(201);
+    HttpResponse unavailable = response(503);
+    when(pushService.send(any(Notification.class))).thenReturn(created, unavailable);
+
+    // Act
+    pushNotificationService.sendNotificationToUser(user, "{\"title\":\"t\"}");
+    queuedDeliveries.forEach(Runnable::run);
+
+    // Assert
+    verify(deliveryLedger).recordSuccess(FCM_ID, true);
+    verify(deliveryLedger).recordFailure(MOZILLA_ID);
+    verifyNoMoreInteractions(deliveryLedger);
+  }
+
+  @Test
+  @DisplayName("Should drop and count deliveries when the delivery queue is full")
+  void sendNotificationToUser_QueueFull_Dropped() throws Exception {
+    // Arrange
+    pushNotificationService =
+        new PushNotificationService(
+            subscriptionRepository,
+            deviceRepository,
+            new ObjectMapper(),
+            deliveryLedger,
+            task -> {
+              throw new RejectedExecutionException("full");
+            },
+            Duration.ofSeconds(10),
+            aggregationScheduler,
+            meterRegistry);
+    ReflectionTestUtils.setField(pushNotificationService, "pushService", pushService);
+    when(subscriptionRepository.findAllByUserAndDisabledAtIsNull(user))
+        .thenReturn(List.of(subscription(FCM_ID, FCM_ENDPOINT)));
+
+    // Act
+    pushNotificationService.sendNotificationToUser(user, "{\"title\":\"t\"}");
+
+    // Assert
+    verifyNoInteractions(pushService);
+    assertEquals(1, meterRegistry.get("sbps.push.dropped").counter().count());
+  }
+
+  @Test
+  @DisplayName("Should push the first balancer action at once and fold the rest into a summary")
+  void notifyUserOfBalancerAction_Storm_CoalescedPerUser() throws Exception {
+    // Arrange
+    user.setId(1L);
+    Device device = new Device();
+    device.setUser(user);
+    when(deviceRepository.findById(anyLong())).thenReturn(Optional.of(device));
+    when(subscriptionRepository.findAllByUserAndDisabledAtIsNull(user))
+        .thenReturn(List.of(subscription(FCM_ID, FCM_ENDPOINT)));
+
+    // Act
+    pushNotificationService.notifyUserOfBalancerAction(
+        new BalancerActionDto(1L, "Heater", "DISABLED_BY_BALANCER"));
+    pushNotificationService.notifyUserOfBalancerAction(
+        new BalancerActionDto(2L, "Kettle", "DISABLED_BY_BALANCER"));
+    pushNotificationService.notifyUserOfBalancerAction(
+        new BalancerActionDto(3L, "Dryer", "DISABLED_BY_BALANCER"));
+
+    // Assert
+    assertEquals(1, queuedDeliveries.size());
+    ArgumentCaptor<Runnable> flush = ArgumentCaptor.forClass(Runnable.class);
+    verify(aggregationScheduler)
+        .schedule(flush.capture(), eq(Duration.ofSeconds(10).toNanos()), eq(TimeUnit.NANOSECONDS));
+    flush.getValue().run();
+    assertEquals(2, queuedDeliveries.size());
+    assertEquals(2, meterRegistry.get("sbps.push.balancer.coalesced").counter().count());
+  }
+
+  @Test
+  @DisplayName("Should summarize coalesced balancer actions by direction")
+  void balancerMessage_MixedActions_Summarized() {
+    // Act
+    String message =
+        PushNotificationService.balancerMessage(
+            List.of(
+                new BalancerActionDto(1L, "Heater", "DISABLED_BY_BALANCER"),
+                new BalancerActionDto(2L, "Kettle", "DISABLED_BY_BALANCER"),
+                new BalancerActionDto(3L, "Dryer", "ENABLED_BY_BALANCER")));
+
+    // Assert
+    assertEquals(
+        "Balancer turned off 2 devices ('Heater', 'Kettle') and turned on 1 device ('Dryer').",
+        message);
+  }
+
+  @Test
+  @DisplayName("Should map push endpoints to a fixed set of host tag values")
+  void host_KnownAndUnknownServices_MapsToFixedValues() {
+    assertEquals("fcm", PushNotificationService.host(FCM_ENDPOINT));
+    assertEquals("mozilla", PushNotificationService.host(MOZILLA_ENDPOINT));
+    assertEquals("apple", PushNotificationService.host("https://web.push.apple.com/QGuQ"));
+    assertEquals("wns", PushNotificationService.host("https://db5p.notify.windows.com/w/?token=x"));
+    assertEquals("other", PushNotificationService.host("https://push.example.org/abc"));
+    assertEquals("other", PushNotificationService.host("not a uri"));
+  }
+
+  private PushSubscription subscription(long id, String endpoint) throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+    generator.initialize(new ECGenParameterSpec("secp256r1"));
+    ECPublicKey publicKey = (ECPublicKey) generator.generateKeyPair().getPublic();
+    byte[] point = new byte[65];
+    point[0] = 0x04;
+    copyUnsigned(publicKey.getW().getAffineX(), point, 1);
+    copyUnsigned(publicKey.getW().getAffineY(), point, 33);
+    Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+    PushSubscription subscription =
+        new PushSubscription(
+            user, endpoint, encoder.encodeToString(point), encoder.encodeToString(new byte[16]));
+    subscription.setId(id);
+    return subscription;
+  }
+
+  private static void copyUnsigned(BigInteger value, byte[] target, int offset) {
+    byte[] bytes = value.toByteArray();
+    int length = Math.min(32, bytes.length);
+    System.arraycopy(bytes, bytes.length - length, target, offset + 32 - length, length);
+  }
+
+  private static HttpResponse response(int status) {
+    HttpResponse response = mock(HttpResponse.class);
+    StatusLine statusLine = mock(StatusLine.class);
+    when(response.getStatusLine()).thenReturn(statusLine);
+    when(statusLine.getStatusCode()).thenReturn(status);
+    return response;
+  }
+}
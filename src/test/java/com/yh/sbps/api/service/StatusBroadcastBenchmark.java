@@ -0,0 +1,140 @@
+package com.yh.sbps.api.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yh.sbps.api.dto.DeviceStatusUpdateDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.converter.MappingJackson2MessageConverter;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+
+/**
+ * Compares the CPU time and bytes per status broadcast of the previous path ({@code
+ * SimpMessagingTemplate} into the simple broker) with {@link StatusTopicFanout}. Both serialize
+ * the update once per broadcast; the numbers show what routing to each session costs on top. Run
+ * with {@code ./gradlew benchmark}.
+ */
+@Tag("benchmark")
+@DisplayName("Status broadcast Benchmark")
+class StatusBroadcastBenchmark {
+
+  private static final int USERS = 200;
+  private static final int SESSIONS_PER_USER = 5;
+  private static final int WARMUP = 5_000;
+  private static final int ITERATIONS = 50_000;
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+
+  @Test
+  @DisplayName("Reports CPU time and bytes per broadcast for the broker and the fan-out")
+  void perBroadcastCost_BrokerVsFanout() throws Exception {
+    DeviceStatusUpdateDto update =
+        new DeviceStatusUpdateDto(
+            1L,
+            "user-0",
+            true,
+            objectMapper.readTree(
+                "{\"apower\": 1520.4, \"voltage\": 231.2, \"current\": 6.58,"
+                    + " \"aenergy\": {\"total\": 48213.7, \"by_minute\": [25.3, 25.1, 24.9]},"
+                    + " \"temperature\": {\"tC\": 41.2, \"tF\": 106.2}}"));
+
+    Delivery broker = new Delivery();
+    SimpMessagingTemplate template = brokerTemplate(broker);
+    long brokerNanos = measure(i -> template.convertAndSend("/topic/status/user-0", update));
+
+    Delivery fanoutDelivery = new Delivery();
+    StatusTopicFanout fanout = fanout(fanoutDelivery);
+    long fanoutNanos = measure(i -> fanout.publish("user-0", i, update));
+
+    System.out.printf(
+        "Status broadcast to %d sessions: broker %d ns/op CPU, %d bytes/op;"
+            + " fan-out %d ns/op CPU, %d bytes/op%n",
+        SESSIONS_PER_USER,
+        brokerNanos,
+        broker.bytesPerBroadcast(),
+        fanoutNanos,
+        fanoutDelivery.bytesPerBroadcast());
+    assertEquals(broker.bytesPerBroadcast(), fanoutDelivery.bytesPerBroadcast());
+  }
+
+  private SimpMessagingTemplate brokerTemplate(Delivery delivery) {
+    ExecutorSubscribableChannel clientInbound = new ExecutorSubscribableChannel();
+    ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+    SimpleBrokerMessageHandler broker =
+        new SimpleBrokerMessageHandler(clientInbound, delivery, brokerChannel, List.of("/topic"));
+    broker.start();
+    forEachSubscription(broker::handleMessage);
+    SimpMessagingTemplate template = new SimpMessagingTemplate(brokerChannel);
+    template.setMessageConverter(new MappingJackson2MessageConverter());
+    return template;
+  }
+
+  private StatusTopicFanout fanout(Delivery delivery) {
+    StatusTopicFanout fanout =
+        new StatusTopicFanout(
+            delivery, objectMapper, List.of(Runnable::run), 64, new SimpleMeterRegistry());
+    forEachSubscription(message -> fanout.onSubscribe(new SessionSubscribeEvent(this, message)));
+    return fanout;
+  }
+
+  private static void forEachSubscription(Consumer<Message<byte[]>> consumer) {
+    for (int user = 0; user < USERS; user++) {
+      for (int session = 0; session < SESSIONS_PER_USER; session++) {
+        SimpMessageHeaderAccessor accessor =
+            SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+        accessor.setSessionId("session-" + user + "-" + session);
+        accessor.setSubscriptionId("sub-0");
+        accessor.setDestination(StatusTopicFanout.DESTINATION_PREFIX + "user-" + user);
+        consumer.accept(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()));
+      }
+    }
+  }
+
+  /** Average CPU time of the calling thread per broadcast; delivery runs on the same thread. */
+  private static long measure(IntConsumer broadcast) {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    for (int i = 0; i < WARMUP; i++) {
+      broadcast.accept(i);
+    }
+    long start = threads.getCurrentThreadCpuTime();
+    for (int i = 0; i < ITERATIONS; i++) {
+      broadcast.accept(i);
+    }
+    return (threads.getCurrentThreadCpuTime() - start) / ITERATIONS;
+  }
+
+  /** Stands in for clientOutboundChannel and counts what would be written to the sessions. */
+  private static final class Delivery implements MessageChannel {
+
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    @Override
+    public boolean send(Message<?> message, long timeout) {
+      messages.incrementAndGet();
+      bytes.addAndGet(((byte[]) message.getPayload()).length);
+      return true;
+    }
+
+    long bytesPerBroadcast() {
+      return bytes.get() * SESSIONS_PER_USER / Math.max(1, messages.get());
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package com.yh.sbps.api.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+
+@DisplayName("StatusTopicFanout Unit Tests")
+class StatusTopicFanoutTest {
+
+  private final List<Message<?>> outbound = new ArrayList<>();
+  private final List<Runnable> queuedDrains = new ArrayList<>();
+  private StatusTopicFanout fanout;
+
+  @BeforeEach
+  void setUp() {
+    MessageChannel clientOutboundChannel = (message, timeout) -> outbound.add(message);
+    Executor shard = queuedDrains::add;
+    fanout =
+        new StatusTopicFanout(
+            clientOutboundChannel,
+            new ObjectMapper(),
+            List.of(shard),
+            2,
+            new SimpleMeterRegistry());
+  }
+
+  @Test
+  @DisplayName("Should deliver an update only to the subscriptions of its user")
+  void publish_SubscribedUser_DeliversToSession() {
+    // Arrange
+    subscribe("session-1", "sub-1", "alice");
+    subscribe("session-2", "sub-1", "bob");
+
+    // Act
+    fanout.publish("alice", 1L, "on");
+    runDrains();
+
+    // Assert
+    assertEquals(1, outbound.size());
+    SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.wrap(outbound.getFirst());
+    assertEquals("session-1", headers.getSessionId());
+    assertEquals("sub-1", headers.getSubscriptionId());
+    assertEquals("/topic/status/alice", headers.getDestination());
+    assertEquals("\"on\"", body(outbound.getFirst()));
+  }
+
+  @Test
+  @DisplayName("Should keep only the latest queued update per device")
+  void publish_SameDeviceWhileQueued_Conflates() {
+    // Arrange
+    subscribe("session-1", "sub-1", "alice");
+
+    // Act
+    fanout.publish("alice", 1L, "first");
+    fanout.publish("alice", 1L, "second");
+    runDrains();
+
+    // Assert
+    assertEquals(1, outbound.size());
+    assertEquals("\"second\"", body(outbound.getFirst()));
+  }
+
+  @Test
+  @DisplayName("Should drop the oldest update when a slow subscription's queue is full")
+  void publish_QueueFull_DropsOldest() {
+    // Arrange
+    subscribe("session-1", "sub-1", "alice");
+
+    // Act
+    fanout.publish("alice", 1L, "device-1");
+    fanout.publish("alice", 2L, "device-2");
+    fanout.publish("alice", 3L, "device-3");
+    runDrains();
+
+    // Assert
+    assertEquals(
+        List.of("\"device-2\"", "\"device-3\""), outbound.stream().map(this::body).toList());
+  }
+
+  @Test
+  @DisplayName("Should stop delivering to a session once it disconnects")
+  void publish_AfterDisconnect_NotDelivered() {
+    // Arrange
+    subscribe("session-1", "sub-1", "alice");
+    Message<byte[]> disconnect = MessageBuilder.withPayload(new byte[0]).build();
+    fanout.onDisconnect(
+        new SessionDisconnectEvent(this, disconnect, "session-1", CloseStatus.NORMAL));
+
+    // Act
+    fanout.publish("alice", 1L, "on");
+    runDrains();
+
+    // Assert
+    assertTrue(outbound.isEmpty());
+  }
+
+  private void subscribe(String sessionId, String subscriptionId, String username) {
+    fanout.onSubscribe(
+        new SessionSubscribeEvent(this, subscribeMessage(sessionId, subscriptionId, username)));
+  }
+
+  private static Message<byte[]> subscribeMessage(
+      String sessionId, String subscriptionId, String username) {
+    SimpMessageHeaderAccessor accessor =
+        SimpMessageHeaderAccessor.create(SimpMessageType.SUBSCRIBE);
+    accessor.setSessionId(sessionId);
+    accessor.setSubscriptionId(subscriptionId);
+    accessor.setDestination(StatusTopicFanout.DESTINATION_PREFIX + username);
+    return MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders());
+  }
+
+  private void runDrains() {
+    while (!queuedDrains.isEmpty()) {
+      queuedDrains.removeFirst().run();
+    }
+  }
+
+  private String body(Message<?> message) {
+    return new String((byte[]) message.getPayload(), StandardCharsets.UTF_8);
+  }
+}
@@ -5,11 +5,15 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
 import com.yh.sbps.api.dto.SystemSettingsDto;
+import com.yh.sbps.api.dto.SystemStateDeltaDto;
+import com.yh.sbps.api.entity.Device;
+import com.yh.sbps.api.entity.DeviceType;
 import com.yh.sbps.api.entity.Role;
 import com.yh.sbps.api.entity.SystemSettings;
 import com.yh.sbps.api.entity.User;
-import com.yh.sbps.api.integration.DeviceServiceWS;
 import com.yh.sbps.api.repository.SystemSettingsRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
 import java.util.Optional;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -24,7 +28,7 @@ class SystemSettingsServiceTest {
 
   @Mock private SystemSettingsRepository systemSettingsRepository;
   @Mock private DeviceService deviceService;
-  @Mock private DeviceServiceWS deviceServiceWS;
+  @Mock private DeviceNotificationOutbox deviceNotificationOutbox;
   private SystemSettingsService systemSettingsService;
   private User testUser;
   private SystemSettings testSettings;
@@ -33,7 +37,11 @@ class SystemSettingsServiceTest {
   @BeforeEach
   void setUp() {
     systemSettingsService =
-        new SystemSettingsService(systemSettingsRepository, deviceService, deviceServiceWS);
+        new SystemSettingsService(
+            systemSettingsRepository,
+            deviceService,
+            new SystemStateCache(new SimpleMeterRegistry()),
+            deviceNotificationOutbox);
 
     testUser = new User("test@example.com", "test", "password", Role.USER);
     testUser.setId(1L);
@@ -120,6 +128,35 @@ class SystemSettingsServiceTest {
     verify(systemSettingsRepository).save(testSettings);
   }
 
+  @Test
+  @DisplayName("Should publish a settings delta to the user's monitor")
+  void updateSettings_WithMonitor_PublishesSettingsDelta() {
+    // Arrange
+    Device monitor = new Device();
+    monitor.setMqttPrefix("monitor/prefix");
+    monitor.setDeviceType(DeviceType.POWER_MONITOR);
+    SystemSettingsDto newSettings = new SystemSettingsDto();
+    newSettings.setPowerLimitWatts(4000);
+
+    when(systemSettingsRepository.findByUser(testUser)).thenReturn(Optional.of(testSettings));
+    when(systemSettingsRepository.save(any(SystemSettings.class)))
+        .thenAnswer(invocation -> invocation.getArgument(0));
+    when(deviceService.getAllDevices(testUser)).thenReturn(List.of(monitor));
+
+    // Act
+    systemSettingsService.updateSettings(testUser, newSettings);
+
+    // Assert
+    verify(deviceNotificationOutbox)
+        .stateDelta(
+            argThat(
+                delta ->
+                    delta.getType() == SystemStateDeltaDto.Type.SETTINGS_CHANGED
+                        && delta.getMqttPrefix().equals("monitor/prefix")
+                        && delta.getSequence() == 1
+                        && delta.getSettings().getPowerLimitWatts() == 4000));
+  }
+
   @Test
   @DisplayName("Should create new settings when updating non-existent settings")
   void updateSettings_NoExistingSettings_CreatesNewSettings() {
@@ -0,0 +1,64 @@
+package com.yh.sbps.api.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.yh.sbps.api.dto.SystemStateDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.List;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+@DisplayName("SystemStateCache Unit Tests")
+class SystemStateCacheTest {
+
+  private SystemStateCache systemStateCache;
+  private Supplier<SystemStateDto> loader;
+
+  @BeforeEach
+  void setUp() {
+    systemStateCache = new SystemStateCache(new SimpleMeterRegistry());
+    loader = () -> new SystemStateDto(null, List.of());
+  }
+
+  @AfterEach
+  void tearDown() {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+  }
+
+  @Test
+  @DisplayName("Should change the ETag on every commit, even when commits arrive out of order")
+  void get_OutOfOrderCommits_EachCommitChangesEtag() {
+    // Arrange
+    List<TransactionSynchronization> first = reserveInTransaction();
+    List<TransactionSynchronization> second = reserveInTransaction();
+    String initial = systemStateCache.get(1L, loader).etag();
+
+    // Act
+    second.forEach(TransactionSynchronization::afterCommit);
+    SystemStateCache.Snapshot afterSecond = systemStateCache.get(1L, loader);
+    first.forEach(TransactionSynchronization::afterCommit);
+    SystemStateCache.Snapshot afterFirst = systemStateCache.get(1L, loader);
+
+    // Assert
+    assertNotEquals(initial, afterSecond.etag());
+    assertNotEquals(afterSecond.etag(), afterFirst.etag());
+    assertEquals(2, afterSecond.generation());
+    assertEquals(2, afterFirst.generation());
+  }
+
+  private List<TransactionSynchronization> reserveInTransaction() {
+    TransactionSynchronizationManager.initSynchronization();
+    systemStateCache.invalidate(1L);
+    List<TransactionSynchronization> synchronizations =
+        TransactionSynchronizationManager.getSynchronizations();
+    TransactionSynchronizationManager.clearSynchronization();
+    return synchronizations;
+  }
+}
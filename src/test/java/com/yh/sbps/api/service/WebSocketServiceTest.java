@@ -0,0 +1,144 @@
+package com.yh.sbps.api.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.yh.sbps.api.dto.DeviceStatusUpdateDto;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("WebSocketService Unit Tests")
+class WebSocketServiceTest {
+
+  @Mock private StatusTopicFanout statusTopicFanout;
+  @Mock private ScheduledExecutorService flushScheduler;
+  private WebSocketService webSocketService;
+
+  @BeforeEach
+  void setUp() {
+    webSocketService =
+        new WebSocketService(
+            statusTopicFanout,
+            Duration.ofMillis(250),
+            flushScheduler,
+            new SimpleMeterRegistry());
+  }
+
+  @Test
+  @DisplayName("Should send only the latest status of a device once the interval elapses")
+  void broadcastDeviceUpdate_RepeatedUpdates_ConflatedUntilFlush() {
+    // Arrange
+    DeviceStatusUpdateDto first = new DeviceStatusUpdateDto(1L, "alice", true, null);
+    DeviceStatusUpdateDto latest = new DeviceStatusUpdateDto(1L, "alice", true, null);
+
+    // Act
+    webSocketService.broadcastDeviceUpdate("alice", first);
+    webSocketService.broadcastDeviceUpdate("alice", latest);
+
+    // Assert
+    verifyNoInteractions(statusTopicFanout);
+    ArgumentCaptor<Runnable> flush = ArgumentCaptor.forClass(Runnable.class);
+    verify(flushScheduler)
+        .schedule(flush.capture(), eq(Duration.ofMillis(250).toNanos()), eq(TimeUnit.NANOSECONDS));
+    flush.getValue().run();
+    verify(statusTopicFanout).publish("alice", 1L, latest);
+    verifyNoMoreInteractions(statusTopicFanout);
+  }
+
+  @Test
+  @DisplayName("Should merge partial updates of a device within one interval")
+  void broadcastDeviceUpdate_PartialUpdates_MergedUntilFlush() throws Exception {
+    // Arrange
+    JsonNode statusJson = new ObjectMapper().readTree("{\"power\": 100}");
+    DeviceStatusUpdateDto online = new DeviceStatusUpdateDto(1L, "alice", true, null);
+    DeviceStatusUpdateDto status = new DeviceStatusUpdateDto(1L, "alice", null, statusJson);
+    webSocketService.broadcastDeviceUpdate("alice", online);
+    webSocketService.broadcastDeviceUpdate("alice", status);
+    ArgumentCaptor<Runnable> flush = ArgumentCaptor.forClass(Runnable.class);
+    verify(flushScheduler).schedule(flush.capture(), anyLong(), eq(TimeUnit.NANOSECONDS));
+
+    // Act
+    flush.getValue().run();
+
+    // Assert
+    ArgumentCaptor<Object> published = ArgumentCaptor.forClass(Object.class);
+    verify(statusTopicFanout).publish(eq("alice"), eq(1L), published.capture());
+    DeviceStatusUpdateDto merged = (DeviceStatusUpdateDto) published.getValue();
+    assertEquals(Boolean.TRUE, merged.getIsOnline());
+    assertEquals(statusJson, merged.getStatusJson());
+  }
+
+  @Test
+  @DisplayName("Should flush immediately when a device goes offline")
+  void broadcastDeviceUpdate_OnlineTransition_FlushedImmediately() {
+    // Arrange
+    DeviceStatusUpdateDto online = new DeviceStatusUpdateDto(1L, "alice", true, null);
+    DeviceStatusUpdateDto otherDevice = new DeviceStatusUpdateDto(2L, "alice", true, null);
+    DeviceStatusUpdateDto offline = new DeviceStatusUpdateDto(1L, "alice", false, null);
+    webSocketService.broadcastDeviceUpdate("alice", online);
+    webSocketService.broadcastDeviceUpdate("alice", otherDevice);
+
+    // Act
+    webSocketService.broadcastDeviceUpdate("alice", offline);
+
+    // Assert
+    InOrder inOrder = inOrder(statusTopicFanout);
+    inOrder.verify(statusTopicFanout).publish("alice", 1L, offline);
+    inOrder.verify(statusTopicFanout).publish("alice", 2L, otherDevice);
+    verifyNoMoreInteractions(statusTopicFanout);
+  }
+
+  @Test
+  @DisplayName("Should send every update immediately when the flush interval is zero")
+  void broadcastDeviceUpdate_ZeroInterval_SentImmediately() {
+    // Arrange
+    webSocketService =
+        new WebSocketService(
+            statusTopicFanout, Duration.ZERO, flushScheduler, new SimpleMeterRegistry());
+    DeviceStatusUpdateDto update = new DeviceStatusUpdateDto(1L, "alice", true, null);
+
+    // Act
+    webSocketService.broadcastDeviceUpdate("alice", update);
+
+    // Assert
+    verify(statusTopicFanout).publish("alice", 1L, update);
+    verifyNoInteractions(flushScheduler);
+  }
+
+  @Test
+  @DisplayName("Should publish the merged status for a partial update when the interval is zero")
+  void broadcastDeviceUpdate_ZeroIntervalPartialUpdate_PublishesMergedStatus() throws Exception {
+    // Arrange
+    webSocketService =
+        new WebSocketService(
+            statusTopicFanout, Duration.ZERO, flushScheduler, new SimpleMeterRegistry());
+    JsonNode statusJson = new ObjectMapper().readTree("{\"power\": 100}");
+    webSocketService.broadcastDeviceUpdate(
+        "alice", new DeviceStatusUpdateDto(1L, "alice", true, null));
+
+    // Act
+    webSocketService.broadcastDeviceUpdate(
+        "alice", new DeviceStatusUpdateDto(1L, "alice", null, statusJson));
+
+    // Assert
+    ArgumentCaptor<Object> published = ArgumentCaptor.forClass(Object.class);
+    verify(statusTopicFanout, times(2)).publish(eq("alice"), eq(1L), published.capture());
+    DeviceStatusUpdateDto merged = (DeviceStatusUpdateDto) published.getAllValues().get(1);
+    assertEquals(Boolean.TRUE, merged.getIsOnline());
+    assertEquals(statusJson, merged.getStatusJson());
+  }
+}